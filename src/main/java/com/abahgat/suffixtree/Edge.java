@@ -15,23 +15,32 @@
  */
 package com.abahgat.suffixtree;
 
+import mezz.jei.search.MemoryFootprint;
+
 /**
  * Represents an Edge in the Suffix Tree.
  * It has a label and a destination Node
  * <p>
  * Edited by mezz:
  * - formatting
+ * - the label is a range of the tree's char buffer instead of a string
  */
 class Edge {
-	private String label;
+	private int labelStart;
+	private int labelLength;
 	private Node dest;
 
-	public String getLabel() {
-		return label;
+	public int getLabelStart() {
+		return labelStart;
+	}
+
+	public int getLabelLength() {
+		return labelLength;
 	}
 
-	public void setLabel(String label) {
-		this.label = label;
+	public void setLabel(int labelStart, int labelLength) {
+		this.labelStart = labelStart;
+		this.labelLength = labelLength;
 	}
 
 	public Node getDest() {
@@ -42,9 +51,17 @@ class Edge {
 		this.dest = dest;
 	}
 
-	public Edge(String label, Node dest) {
-		this.label = label;
+	public Edge(int labelStart, int labelLength, Node dest) {
+		this.labelStart = labelStart;
+		this.labelLength = labelLength;
 		this.dest = dest;
 	}
 
+	/**
+	 * Estimates the memory used by this edge, not including the destination node or the chars of its label.
+	 */
+	public long getMemoryFootprint() {
+		return MemoryFootprint.object(MemoryFootprint.REFERENCE + 2 * MemoryFootprint.INT);
+	}
+
 }
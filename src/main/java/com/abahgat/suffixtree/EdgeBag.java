@@ -21,6 +21,8 @@ import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
 
+import mezz.jei.search.MemoryFootprint;
+
 /**
  * A specialized implementation of Map that uses native char types and sorted
  * arrays to keep minimize the memory footprint.
@@ -107,6 +109,18 @@ class EdgeBag implements Map<Character, Edge> {
 		return values;
 	}
 
+	/**
+	 * Estimates the memory used by this bag, not including the edges in it.
+	 */
+	public long getMemoryFootprint() {
+		long size = MemoryFootprint.object(2 * MemoryFootprint.REFERENCE);
+		if (chars != null) {
+			size += MemoryFootprint.array(chars.length, MemoryFootprint.CHAR);
+		}
+		size += MemoryFootprint.array(values.length, MemoryFootprint.REFERENCE);
+		return size;
+	}
+
 	/**
 	 * A trivial implementation of sort, used to sort chars[] and values[] according to the data in chars.
 	 * <p>
@@ -16,9 +16,13 @@
 package com.abahgat.suffixtree;
 
 import javax.annotation.Nullable;
+import java.util.Arrays;
 
-import gnu.trove.set.TIntSet;
-import gnu.trove.set.hash.TIntHashSet;
+import mezz.jei.search.ISearchTree;
+import mezz.jei.search.IntBitmap;
+import mezz.jei.search.MemoryFootprint;
+import mezz.jei.search.SearchCancellation;
+import mezz.jei.search.SearchTreeStats;
 
 /**
  * A Generalized Suffix Tree, based on the Ukkonen's paper "On-line construction of suffix trees"
@@ -58,40 +62,161 @@ import gnu.trove.set.hash.TIntHashSet;
  * - only allow full searches
  * - add nullable/nonnull annotations
  * - formatting
+ * - implement ISearchTree and estimate the memory footprint
+ * - freeze the tree into DFS ordered ranges of indexes, so searches don't need to recurse
+ * - build the tree on offsets into one char buffer, without allocating strings or pairs for every char
+ * - freeze the nodes into flat arrays and discard them, keeping the keys to rebuild them if more are put
+ * - put keys into a small overlay tree while frozen, and only rebuild once the overlay gets large
  */
-public class GeneralizedSuffixTree {
+public class GeneralizedSuffixTree implements ISearchTree {
+	/**
+	 * The overlay is merged into the frozen tree when it has more than this many keys,
+	 * or more than {@link #OVERLAY_MERGE_DIVISOR}th of the frozen tree's keys.
+	 */
+	private static final int OVERLAY_MERGE_MIN_KEYS = 1024;
+	private static final int OVERLAY_MERGE_DIVISOR = 8;
 
 	/**
 	 * The index of the last item that was added to the GST
 	 */
 	private int last = 0;
 	/**
-	 * The root of the suffix tree
+	 * The root of the suffix tree.
+	 * Empty while the tree is frozen, the nodes are rebuilt from the keys when the overlay is merged.
 	 */
-	private final Node root = new Node();
+	private Node root = new Node();
 	/**
 	 * The last leaf that was added during the update operation
 	 */
 	private Node activeLeaf = root;
+	/**
+	 * The chars of every key that was put, the edge labels are ranges of it.
+	 */
+	private char[] chars = new char[64];
+	private int charCount = 0;
+	/**
+	 * The start of every key that was put in the char buffer, and the index it was put with.
+	 * Each key ends where the next one starts.
+	 */
+	private int[] keyStarts = new int[16];
+	private int[] keyIndexes = new int[16];
+	private int keyCount = 0;
+
+	/**
+	 * The frozen tree, only valid when the tree is frozen, see {@link #freeze()}.
+	 * The nodes are numbered in depth-first order, the root is node 0.
+	 * <p>
+	 * The edges of node n are [nodeEdgeStarts[n], nodeEdgeStarts[n + 1]), sorted by their first char.
+	 * The indexes of node n and all nodes below it are frozenData[nodeDataStarts[n], nodeDataEnds[n]).
+	 */
+	private boolean frozen = false;
+	private int[] nodeEdgeStarts = new int[0];
+	private int[] nodeDataStarts = new int[0];
+	private int[] nodeDataEnds = new int[0];
+	private char[] edgeChars = new char[0];
+	private int[] edgeLabelStarts = new int[0];
+	private int[] edgeLabelLengths = new int[0];
+	private int[] edgeDests = new int[0];
+	private int[] frozenData = new int[0];
+	/**
+	 * The keys that were put while the tree was frozen, so that putting a few keys doesn't rebuild the whole tree.
+	 * It is never frozen, searches walk its nodes. It is merged into the frozen tree by {@link #freeze()} once it gets large.
+	 */
+	@Nullable
+	private GeneralizedSuffixTree overlay;
+	/**
+	 * The second results of {@link #canonize}, {@link #update} and {@link #testAndSplit},
+	 * kept in fields so that putting a key doesn't allocate pairs.
+	 */
+	private int canonizedStart;
+	private int updatedStart;
+	private boolean testEndpoint;
 
 	/**
 	 * Searches for the given word within the GST.
 	 * <p>
-	 * Returns all the indexes for which the key contains the <tt>word</tt> that was
+	 * Adds all the indexes for which the key contains the <tt>word</tt> that was
 	 * supplied as input.
+	 * <p>
+	 * When the tree is frozen, the indexes are read from the node's range in the frozen data,
+	 * otherwise they are collected from all the nodes below it.
+	 * The indexes of the keys in the overlay are added too.
 	 *
-	 * @param word the key to search for
-	 * @return the collection of indexes associated with the input <tt>word</tt>
+	 * @param word    the key to search for
+	 * @param results the set of indexes associated with the input <tt>word</tt> is added to
 	 */
-	public TIntSet search(String word) {
+	@Override
+	public void search(String word, IntBitmap results) {
+		if (frozen) {
+			int node = searchFrozenNode(word);
+			if (node >= 0) {
+				for (int i = nodeDataStarts[node]; i < nodeDataEnds[node]; i++) {
+					if (i % SearchCancellation.CHECK_INTERVAL == 0) {
+						SearchCancellation.check();
+					}
+					results.add(frozenData[i]);
+				}
+			}
+			if (overlay != null) {
+				overlay.search(word, results);
+			}
+			return;
+		}
+
 		Node tmpNode = searchNode(word);
-		if (tmpNode == null) {
-			return new TIntHashSet();
+		if (tmpNode != null) {
+			tmpNode.getData(results);
 		}
+	}
 
-		TIntSet ret = new TIntHashSet(1000);
-		tmpNode.getData(ret);
-		return ret;
+	/**
+	 * When frozen, the size of the node's range is its cached count. Indexes put under several keys are counted more than once.
+	 */
+	@Override
+	public int estimateCount(String word) {
+		if (frozen) {
+			int node = searchFrozenNode(word);
+			int count = node < 0 ? 0 : nodeDataEnds[node] - nodeDataStarts[node];
+			if (overlay != null) {
+				count += overlay.estimateCount(word);
+			}
+			return count;
+		}
+
+		Node tmpNode = searchNode(word);
+		return tmpNode == null ? 0 : tmpNode.computeDataSize();
+	}
+
+	/**
+	 * Returns the frozen tree node that corresponds to the given string, or -1 if there is none.
+	 * Follows the same path as {@link #searchNode(String)}.
+	 */
+	private int searchFrozenNode(String word) {
+		int node = 0;
+		int i = 0;
+		while (i < word.length()) {
+			int edge = Arrays.binarySearch(edgeChars, nodeEdgeStarts[node], nodeEdgeStarts[node + 1], word.charAt(i));
+			if (edge < 0) {
+				return -1;
+			}
+
+			int labelStart = edgeLabelStarts[edge];
+			int labelLength = edgeLabelLengths[edge];
+			int lenToMatch = Math.min(word.length() - i, labelLength);
+			for (int j = 1; j < lenToMatch; j++) {
+				if (word.charAt(i + j) != chars[labelStart + j]) {
+					return -1;
+				}
+			}
+
+			if (labelLength >= word.length() - i) {
+				return edgeDests[edge];
+			}
+			node = edgeDests[edge];
+			i += lenToMatch;
+		}
+
+		return -1;
 	}
 
 	/**
@@ -115,14 +240,17 @@ public class GeneralizedSuffixTree {
 				// there is no edge starting with this char
 				return null;
 			} else {
-				String label = currentEdge.getLabel();
-				int lenToMatch = Math.min(word.length() - i, label.length());
-				if (!word.regionMatches(i, label, 0, lenToMatch)) {
-					// the label on the edge does not correspond to the one in the string to search
-					return null;
+				int labelStart = currentEdge.getLabelStart();
+				int labelLength = currentEdge.getLabelLength();
+				int lenToMatch = Math.min(word.length() - i, labelLength);
+				for (int j = 1; j < lenToMatch; j++) {
+					if (word.charAt(i + j) != chars[labelStart + j]) {
+						// the label on the edge does not correspond to the one in the string to search
+						return null;
+					}
 				}
 
-				if (label.length() >= word.length() - i) {
+				if (labelLength >= word.length() - i) {
 					return currentEdge.getDest();
 				} else {
 					// advance to next node
@@ -140,18 +268,38 @@ public class GeneralizedSuffixTree {
 	 * <p>
 	 * Entries must be inserted so that their indexes are in non-decreasing order,
 	 * otherwise an IllegalStateException will be raised.
+	 * <p>
+	 * While the tree is frozen, the key is put into the overlay instead.
 	 *
 	 * @param key   the string key that will be added to the index
 	 * @param index the value that will be added to the index
 	 * @throws IllegalStateException if an invalid index is passed as input
 	 */
+	@Override
 	public void put(String key, int index) throws IllegalStateException {
 		if (index < last) {
 			throw new IllegalStateException("The input index must not be less than any of the previously inserted ones. Got " + index + ", expected at least " + last);
 		} else {
 			last = index;
 		}
+		if (frozen) {
+			if (overlay == null) {
+				overlay = new GeneralizedSuffixTree();
+			}
+			overlay.put(key, index);
+			return;
+		}
 
+		// the key is copied into the buffer once, all the strings below are ranges of it
+		int keyStart = appendChars(key);
+		addKey(keyStart, index);
+		put(keyStart, charCount, index);
+	}
+
+	/**
+	 * Adds the key chars[keyStart, keyEnd) to the nodes of the tree.
+	 */
+	private void put(int keyStart, int keyEnd, int index) {
 		// reset activeLeaf
 		activeLeaf = root;
 
@@ -159,19 +307,17 @@ public class GeneralizedSuffixTree {
 
 		// proceed with tree construction (closely related to procedure in
 		// Ukkonen's paper)
-		String text = "";
+		// the active text is chars[textStart, i + 1)
+		int textStart = keyStart;
 		// iterate over the string, one char at a time
-		for (int i = 0; i < key.length(); i++) {
-			// line 6
-			text += key.charAt(i);
+		for (int i = keyStart; i < keyEnd; i++) {
+			// line 6: the text grows by chars[i]
 
 			// line 7: update the tree with the new transitions due to this new char
-			Pair<Node, String> active = update(s, text, key.substring(i), index);
+			s = update(s, textStart, i + 1, i, keyEnd, index);
 			// line 8: make sure the active pair is canonical
-			active = canonize(active.getFirst(), active.getSecond());
-
-			s = active.getFirst();
-			text = active.getSecond();
+			s = canonize(s, updatedStart, i + 1);
+			textStart = canonizedStart;
 		}
 
 		// add leaf suffix link, is necessary
@@ -181,6 +327,86 @@ public class GeneralizedSuffixTree {
 
 	}
 
+	/**
+	 * Copies the key to the end of the char buffer.
+	 *
+	 * @return the start of the key in the buffer
+	 */
+	private int appendChars(String key) {
+		int keyStart = reserveChars(key.length());
+		key.getChars(0, key.length(), chars, keyStart);
+		return keyStart;
+	}
+
+	private int appendChars(char[] source, int sourceStart, int length) {
+		int keyStart = reserveChars(length);
+		System.arraycopy(source, sourceStart, chars, keyStart, length);
+		return keyStart;
+	}
+
+	/**
+	 * @return the start of the reserved chars at the end of the buffer
+	 */
+	private int reserveChars(int length) {
+		int keyStart = charCount;
+		int keyEnd = keyStart + length;
+		if (keyEnd > chars.length) {
+			chars = Arrays.copyOf(chars, Math.max(keyEnd, chars.length * 2));
+		}
+		charCount = keyEnd;
+		return keyStart;
+	}
+
+	private void addKey(int keyStart, int index) {
+		if (keyCount == keyStarts.length) {
+			keyStarts = Arrays.copyOf(keyStarts, keyCount * 2);
+			keyIndexes = Arrays.copyOf(keyIndexes, keyCount * 2);
+		}
+		keyStarts[keyCount] = keyStart;
+		keyIndexes[keyCount] = index;
+		keyCount++;
+	}
+
+	private int getKeyEnd(int key) {
+		return (key + 1 < keyCount) ? keyStarts[key + 1] : charCount;
+	}
+
+	/**
+	 * Rebuilds the nodes that were discarded by {@link #freeze()} by putting every key again,
+	 * then puts the keys of the overlay, so that the tree can be frozen with all of them.
+	 */
+	private void mergeOverlay(GeneralizedSuffixTree overlay) {
+		frozen = false;
+		for (int key = 0; key < keyCount; key++) {
+			put(keyStarts[key], getKeyEnd(key), keyIndexes[key]);
+		}
+		for (int key = 0; key < overlay.keyCount; key++) {
+			int overlayKeyStart = overlay.keyStarts[key];
+			int keyLength = overlay.getKeyEnd(key) - overlayKeyStart;
+			int keyStart = appendChars(overlay.chars, overlayKeyStart, keyLength);
+			addKey(keyStart, overlay.keyIndexes[key]);
+			put(keyStart, charCount, overlay.keyIndexes[key]);
+		}
+		this.overlay = null;
+	}
+
+	/**
+	 * @return true if chars[start, end) starts with the label of the edge
+	 */
+	private boolean startsWithLabel(int start, int end, Edge edge) {
+		int labelLength = edge.getLabelLength();
+		return end - start >= labelLength && regionMatches(start, edge.getLabelStart(), labelLength);
+	}
+
+	private boolean regionMatches(int start, int otherStart, int length) {
+		for (int i = 0; i < length; i++) {
+			if (chars[start + i] != chars[otherStart + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	/**
 	 * Tests whether the string stringPart + t is contained in the subtree that has inputs as root.
 	 * If that's not the case, and there exists a path of edges e1, e2, ... such that
@@ -190,108 +416,115 @@ public class GeneralizedSuffixTree {
 	 * <p>
 	 * Then g will be split in two different edges, one having $end as label, and the other one
 	 * having rest as label.
+	 * <p>
+	 * Whether (stringPart + t) is contained in the subtree starting in inputs is stored in {@link #testEndpoint}.
 	 *
-	 * @param inputs     the starting node
-	 * @param stringPart the string to search
-	 * @param t          the following character
-	 * @param remainder  the remainder of the string to add to the index
-	 * @param value      the value to add to the index
-	 * @return a pair containing
-	 * true/false depending on whether (stringPart + t) is contained in the subtree starting in inputs
-	 * the last node that can be reached by following the path denoted by stringPart starting from inputs
+	 * @param inputs         the starting node
+	 * @param partStart      the start of the string to search in the char buffer
+	 * @param partEnd        the end of the string to search in the char buffer
+	 * @param t              the following character
+	 * @param remainderStart the start of the remainder of the string to add to the index
+	 * @param remainderEnd   the end of the remainder of the string to add to the index
+	 * @param value          the value to add to the index
+	 * @return the last node that can be reached by following the path denoted by stringPart starting from inputs
 	 */
-	private Pair<Boolean, Node> testAndSplit(final Node inputs, final String stringPart, final char t, final String remainder, final int value) {
+	private Node testAndSplit(final Node inputs, final int partStart, final int partEnd, final char t, final int remainderStart, final int remainderEnd, final int value) {
 		// descend the tree as far as possible
-		Pair<Node, String> ret = canonize(inputs, stringPart);
-		Node s = ret.getFirst();
-		String str = ret.getSecond();
+		Node s = canonize(inputs, partStart, partEnd);
+		int strStart = canonizedStart;
+		int strLength = partEnd - strStart;
 
-		if (!"".equals(str)) {
-			Edge g = s.getEdge(str.charAt(0));
+		if (strLength > 0) {
+			Edge g = s.getEdge(chars[strStart]);
 
-			String label = g.getLabel();
+			int labelStart = g.getLabelStart();
+			int labelLength = g.getLabelLength();
 			// must see whether "str" is substring of the label of an edge
-			if (label.length() > str.length() && label.charAt(str.length()) == t) {
-				return new Pair<Boolean, Node>(true, s);
+			if (labelLength > strLength && chars[labelStart + strLength] == t) {
+				testEndpoint = true;
+				return s;
 			} else {
 				// need to split the edge
-				String newlabel = label.substring(str.length());
-				assert (label.startsWith(str));
+				assert (regionMatches(labelStart, strStart, strLength));
 
 				// build a new node
 				Node r = new Node();
 				// build a new edge
-				Edge newedge = new Edge(str, r);
+				Edge newedge = new Edge(labelStart, strLength, r);
 
-				g.setLabel(newlabel);
+				g.setLabel(labelStart + strLength, labelLength - strLength);
 
 				// link s -> r
-				r.addEdge(newlabel.charAt(0), g);
-				s.addEdge(str.charAt(0), newedge);
+				r.addEdge(chars[g.getLabelStart()], g);
+				s.addEdge(chars[strStart], newedge);
 
-				return new Pair<Boolean, Node>(false, r);
+				testEndpoint = false;
+				return r;
 			}
 
 		} else {
 			Edge e = s.getEdge(t);
 			if (null == e) {
 				// if there is no t-transtion from s
-				return new Pair<Boolean, Node>(false, s);
-			} else {
-				if (remainder.equals(e.getLabel())) {
-					// update payload of destination node
-					e.getDest().addRef(value);
-					return new Pair<Boolean, Node>(true, s);
-				} else if (remainder.startsWith(e.getLabel())) {
-					return new Pair<Boolean, Node>(true, s);
-				} else if (e.getLabel().startsWith(remainder)) {
-					// need to split as above
-					Node newNode = new Node();
-					newNode.addRef(value);
+				testEndpoint = false;
+				return s;
+			}
 
-					Edge newEdge = new Edge(remainder, newNode);
+			int remainderLength = remainderEnd - remainderStart;
+			int labelStart = e.getLabelStart();
+			int labelLength = e.getLabelLength();
+			if (remainderLength == labelLength && regionMatches(remainderStart, labelStart, labelLength)) {
+				// update payload of destination node
+				e.getDest().addRef(value);
+				testEndpoint = true;
+			} else if (remainderLength > labelLength && regionMatches(remainderStart, labelStart, labelLength)) {
+				testEndpoint = true;
+			} else if (labelLength > remainderLength && regionMatches(labelStart, remainderStart, remainderLength)) {
+				// need to split as above
+				Node newNode = new Node();
+				newNode.addRef(value);
 
-					e.setLabel(e.getLabel().substring(remainder.length()));
+				Edge newEdge = new Edge(remainderStart, remainderLength, newNode);
 
-					newNode.addEdge(e.getLabel().charAt(0), e);
+				e.setLabel(labelStart + remainderLength, labelLength - remainderLength);
 
-					s.addEdge(t, newEdge);
+				newNode.addEdge(chars[e.getLabelStart()], e);
 
-					return new Pair<Boolean, Node>(false, s);
-				} else {
-					// they are different words. No prefix. but they may still share some common substr
-					return new Pair<Boolean, Node>(true, s);
-				}
+				s.addEdge(t, newEdge);
+
+				testEndpoint = false;
+			} else {
+				// they are different words. No prefix. but they may still share some common substr
+				testEndpoint = true;
 			}
+			return s;
 		}
 
 	}
 
 	/**
-	 * Return a (Node, String) (n, remainder) pair such that n is a farthest descendant of
-	 * s (the input node) that can be reached by following a path of edges denoting
-	 * a prefix of inputstr and remainder will be string that must be
-	 * appended to the concatenation of labels from s to n to get inpustr.
+	 * Return the node n that is a farthest descendant of s (the input node) that can be reached
+	 * by following a path of edges denoting a prefix of chars[start, end).
+	 * The remainder that must be appended to the concatenation of labels from s to n to get the input
+	 * is chars[{@link #canonizedStart}, end).
 	 */
-	private Pair<Node, String> canonize(final Node s, final String inputstr) {
-
-		if ("".equals(inputstr)) {
-			return new Pair<Node, String>(s, inputstr);
-		} else {
-			Node currentNode = s;
-			String str = inputstr;
-			Edge g = s.getEdge(str.charAt(0));
+	private Node canonize(final Node s, final int start, final int end) {
+		Node currentNode = s;
+		int strStart = start;
+		if (strStart < end) {
+			Edge g = s.getEdge(chars[strStart]);
 			// descend the tree as long as a proper label is found
-			while (g != null && str.startsWith(g.getLabel())) {
-				str = str.substring(g.getLabel().length());
+			while (g != null && startsWithLabel(strStart, end, g)) {
+				strStart += g.getLabelLength();
 				currentNode = g.getDest();
-				if (str.length() > 0) {
-					g = currentNode.getEdge(str.charAt(0));
+				if (strStart < end) {
+					g = currentNode.getEdge(chars[strStart]);
 				}
 			}
-
-			return new Pair<Node, String>(currentNode, str);
 		}
+
+		canonizedStart = strStart;
+		return currentNode;
 	}
 
 	/**
@@ -303,26 +536,27 @@ public class GeneralizedSuffixTree {
 	 * that can be obtained by concatenating consecutive edges in the tree and
 	 * that is a substring of the string added so far to the tree.
 	 * - the String will be the remainder that must be added to S1 to get the string
-	 * added so far.
+	 * added so far, chars[{@link #updatedStart}, partEnd).
 	 *
-	 * @param inputNode  the node to start from
-	 * @param stringPart the string to add to the tree
-	 * @param rest       the rest of the string
-	 * @param value      the value to add to the index
+	 * @param inputNode the node to start from
+	 * @param partStart the start of the string to add to the tree in the char buffer
+	 * @param partEnd   the end of the string to add to the tree in the char buffer
+	 * @param restStart the start of the rest of the string
+	 * @param restEnd   the end of the rest of the string
+	 * @param value     the value to add to the index
 	 */
-	private Pair<Node, String> update(final Node inputNode, final String stringPart, final String rest, final int value) {
+	private Node update(final Node inputNode, final int partStart, final int partEnd, final int restStart, final int restEnd, final int value) {
 		Node s = inputNode;
-		String tempstr = stringPart;
-		char newChar = stringPart.charAt(stringPart.length() - 1);
+		// the current string is chars[tempStart, partEnd), it always ends with the new char
+		int tempStart = partStart;
+		char newChar = chars[partEnd - 1];
 
 		// line 1
 		Node oldroot = root;
 
 		// line 1b
-		Pair<Boolean, Node> ret = testAndSplit(s, tempstr.substring(0, tempstr.length() - 1), newChar, rest, value);
-
-		Node r = ret.getSecond();
-		boolean endpoint = ret.getFirst();
+		Node r = testAndSplit(s, tempStart, partEnd - 1, newChar, restStart, restEnd, value);
+		boolean endpoint = testEndpoint;
 
 		Node leaf;
 		// line 2
@@ -337,7 +571,7 @@ public class GeneralizedSuffixTree {
 				// must build a new leaf
 				leaf = new Node();
 				leaf.addRef(value);
-				Edge newedge = new Edge(rest, leaf);
+				Edge newedge = new Edge(restStart, restEnd - restStart, leaf);
 				r.addEdge(newChar, newedge);
 			}
 
@@ -359,17 +593,16 @@ public class GeneralizedSuffixTree {
 			if (null == s.getSuffix()) { // root node
 				assert (root == s);
 				// this is a special case to handle what is referred to as node _|_ on the paper
-				tempstr = tempstr.substring(1);
+				tempStart++;
 			} else {
-				Pair<Node, String> canret = canonize(s.getSuffix(), safeCutLastChar(tempstr));
-				s = canret.getFirst();
-				tempstr = (canret.getSecond() + tempstr.charAt(tempstr.length() - 1));
+				// the canonized remainder is followed by the last char again
+				s = canonize(s.getSuffix(), tempStart, safeCutLastChar(tempStart, partEnd));
+				tempStart = canonizedStart;
 			}
 
 			// line 7
-			ret = testAndSplit(s, safeCutLastChar(tempstr), newChar, rest, value);
-			r = ret.getSecond();
-			endpoint = ret.getFirst();
+			r = testAndSplit(s, tempStart, safeCutLastChar(tempStart, partEnd), newChar, restStart, restEnd, value);
+			endpoint = testEndpoint;
 
 		}
 
@@ -379,43 +612,162 @@ public class GeneralizedSuffixTree {
 		}
 		oldroot = root;
 
-		return new Pair<Node, String>(s, tempstr);
-	}
-
-	Node getRoot() {
-		return root;
+		updatedStart = tempStart;
+		return s;
 	}
 
-	private String safeCutLastChar(String seq) {
-		if (seq.length() == 0) {
-			return "";
+	/**
+	 * @return the end of chars[start, end) without its last char, if it has one
+	 */
+	private static int safeCutLastChar(int start, int end) {
+		if (end <= start) {
+			return end;
 		}
-		return seq.substring(0, seq.length() - 1);
+		return end - 1;
 	}
 
+	/**
+	 * @return the number of distinct indexes in the tree
+	 */
 	public int computeCount() {
-		return root.computeAndCacheCount();
+		if (!frozen) {
+			return root.computeAndCacheCount();
+		}
+		IntBitmap indexes = new IntBitmap();
+		for (int index : frozenData) {
+			indexes.add(index);
+		}
+		if (overlay != null) {
+			overlay.root.getData(indexes);
+		}
+		return indexes.getCardinality();
 	}
 
 	/**
-	 * A private class used to return a tuples of two elements
+	 * Numbers the nodes in depth-first order and copies them into flat arrays,
+	 * with their indexes in one array so that each node's subtree maps to a contiguous range of it.
+	 * The nodes are discarded afterwards, searches only read the flat arrays.
+	 * <p>
+	 * Keys that are put afterwards go into the overlay, which is searched as well.
+	 * Once the overlay gets large, this rebuilds the nodes with its keys and freezes them again.
 	 */
-	private class Pair<A, B> {
+	@Override
+	public void freeze() {
+		if (frozen) {
+			if (overlay == null || overlay.keyCount <= Math.max(OVERLAY_MERGE_MIN_KEYS, keyCount / OVERLAY_MERGE_DIVISOR)) {
+				return;
+			}
+			mergeOverlay(overlay);
+		}
+		int nodeCount = root.computeNodeCount();
+		int edgeCount = nodeCount - 1;
+		nodeEdgeStarts = new int[nodeCount + 1];
+		nodeDataStarts = new int[nodeCount];
+		nodeDataEnds = new int[nodeCount];
+		edgeChars = new char[edgeCount];
+		edgeLabelStarts = new int[edgeCount];
+		edgeLabelLengths = new int[edgeCount];
+		edgeDests = new int[edgeCount];
+		frozenData = new int[root.computeDataSize()];
+
+		FreezeCursor cursor = new FreezeCursor();
+		freezeNode(root, cursor);
+		nodeEdgeStarts[nodeCount] = edgeCount;
+
+		root = new Node();
+		activeLeaf = root;
+		frozen = true;
+	}
 
-		private final A first;
-		private final B second;
+	/**
+	 * Copies the node and then all nodes below it into the flat arrays, at the positions of the cursor.
+	 *
+	 * @return the number of the node
+	 */
+	private int freezeNode(Node node, FreezeCursor cursor) {
+		int nodeId = cursor.nodeCount++;
+		nodeDataStarts[nodeId] = cursor.dataCount;
+		cursor.dataCount = node.copyData(frozenData, cursor.dataCount);
+
+		// reserve the edges of this node before numbering its children, so that they are next to each other
+		Edge[] edges = node.getEdges();
+		int firstEdge = cursor.edgeCount;
+		nodeEdgeStarts[nodeId] = firstEdge;
+		cursor.edgeCount += edges.length;
+		for (int i = 0; i < edges.length; i++) {
+			// insertion sort by the first char, nodes have few edges
+			char ch = chars[edges[i].getLabelStart()];
+			int edge = firstEdge + i;
+			while (edge > firstEdge && edgeChars[edge - 1] > ch) {
+				edgeChars[edge] = edgeChars[edge - 1];
+				edgeLabelStarts[edge] = edgeLabelStarts[edge - 1];
+				edgeLabelLengths[edge] = edgeLabelLengths[edge - 1];
+				edge--;
+			}
+			edgeChars[edge] = ch;
+			edgeLabelStarts[edge] = edges[i].getLabelStart();
+			edgeLabelLengths[edge] = edges[i].getLabelLength();
+		}
 
-		public Pair(A first, B second) {
-			this.first = first;
-			this.second = second;
+		for (int edge = firstEdge; edge < firstEdge + edges.length; edge++) {
+			Edge e = node.getEdge(edgeChars[edge]);
+			assert e != null;
+			edgeDests[edge] = freezeNode(e.getDest(), cursor);
 		}
+		nodeDataEnds[nodeId] = cursor.dataCount;
+		return nodeId;
+	}
 
-		public A getFirst() {
-			return first;
+	@Override
+	public long getMemoryFootprint() {
+		long size = MemoryFootprint.object(14 * MemoryFootprint.REFERENCE + 5 * MemoryFootprint.INT + 2) +
+				MemoryFootprint.array(chars.length, MemoryFootprint.CHAR) +
+				MemoryFootprint.array(keyStarts.length, MemoryFootprint.INT) +
+				MemoryFootprint.array(keyIndexes.length, MemoryFootprint.INT) +
+				MemoryFootprint.array(nodeEdgeStarts.length, MemoryFootprint.INT) +
+				MemoryFootprint.array(nodeDataStarts.length, MemoryFootprint.INT) +
+				MemoryFootprint.array(nodeDataEnds.length, MemoryFootprint.INT) +
+				MemoryFootprint.array(edgeChars.length, MemoryFootprint.CHAR) +
+				MemoryFootprint.array(edgeLabelStarts.length, MemoryFootprint.INT) +
+				MemoryFootprint.array(edgeLabelLengths.length, MemoryFootprint.INT) +
+				MemoryFootprint.array(edgeDests.length, MemoryFootprint.INT) +
+				MemoryFootprint.array(frozenData.length, MemoryFootprint.INT);
+		if (!frozen) {
+			size += root.getMemoryFootprint();
 		}
+		if (overlay != null) {
+			size += overlay.getMemoryFootprint();
+		}
+		return size;
+	}
 
-		public B getSecond() {
-			return second;
+	/**
+	 * The stats of a frozen tree include the nodes, edges and indexes of its overlay.
+	 */
+	@Override
+	public SearchTreeStats getStats() {
+		if (frozen) {
+			int nodeCount = nodeDataStarts.length;
+			int edgeCount = edgeChars.length;
+			long payloadCount = frozenData.length;
+			if (overlay != null) {
+				SearchTreeStats overlayStats = overlay.getStats();
+				nodeCount += overlayStats.getNodeCount();
+				edgeCount += overlayStats.getEdgeCount();
+				payloadCount += overlayStats.getPayloadCount();
+			}
+			return new SearchTreeStats(nodeCount, edgeCount, payloadCount, getMemoryFootprint());
 		}
+		int nodeCount = root.computeNodeCount();
+		return new SearchTreeStats(nodeCount, nodeCount - 1, root.computeDataSize(), getMemoryFootprint());
+	}
+
+	/**
+	 * The next free positions in the flat arrays while freezing.
+	 */
+	private static class FreezeCursor {
+		private int nodeCount = 0;
+		private int edgeCount = 0;
+		private int dataCount = 0;
 	}
 }
@@ -20,7 +20,9 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 
-import gnu.trove.set.TIntSet;
+import mezz.jei.search.IntBitmap;
+import mezz.jei.search.MemoryFootprint;
+import mezz.jei.search.SearchCancellation;
 
 /**
  * Represents a node of the generalized suffix tree graph
@@ -33,6 +35,8 @@ import gnu.trove.set.TIntSet;
  * - only allow full searches
  * - add nullable/nonnull annotations
  * - formatting
+ * - copy the nodes into the frozen tree's flat arrays
+ * - grow the payload array geometrically, so nodes of common substrings aren't copied on every added index
  */
 class Node {
 
@@ -42,7 +46,7 @@ class Node {
 	 * <p>
 	 * As it is handled, it resembles an ArrayList: when it becomes full it
 	 * is copied to another bigger array (whose size is equals to data.length +
-	 * INCREMENT).
+	 * half of data.length, or INCREMENT when that is larger).
 	 * <p>
 	 * Originally it was a List<Integer> but it took too much memory, changing
 	 * it to int[] take less memory because indexes are stored using native
@@ -60,7 +64,7 @@ class Node {
 	 */
 	private static final int START_SIZE = 0;
 	/**
-	 * The increment in size used when the payload array is full
+	 * The minimum increment in size used when the payload array is full
 	 */
 	private static final int INCREMENT = 1;
 	/**
@@ -100,14 +104,54 @@ class Node {
 	 * Gets data from the payload of both this node and its children, the string representation
 	 * of the path to this node is a substring of the one of the children nodes.
 	 */
-	void getData(TIntSet ret) {
-		ret.addAll(data);
+	void getData(IntBitmap ret) {
+		SearchCancellation.check();
+		for (int i = 0; i < lastIdx; i++) {
+			ret.add(data[i]);
+		}
 
 		for (Edge e : edges.getValues()) {
 			e.getDest().getData(ret);
 		}
 	}
 
+	/**
+	 * @return the number of indexes stored in this node and all nodes below it, counting repeated indexes
+	 */
+	int computeDataSize() {
+		int size = lastIdx;
+		for (Edge e : edges.getValues()) {
+			size += e.getDest().computeDataSize();
+		}
+		return size;
+	}
+
+	/**
+	 * @return the number of nodes in the subtree of this node, including this one
+	 */
+	int computeNodeCount() {
+		int count = 1;
+		for (Edge e : edges.getValues()) {
+			count += e.getDest().computeNodeCount();
+		}
+		return count;
+	}
+
+	/**
+	 * Copies the indexes of this node, not including the nodes below it, into the frozen data, starting at the given position.
+	 *
+	 * @return the position after the last copied index
+	 * @see GeneralizedSuffixTree#freeze()
+	 */
+	int copyData(int[] frozenData, int start) {
+		System.arraycopy(data, 0, frozenData, start, lastIdx);
+		return start + lastIdx;
+	}
+
+	Edge[] getEdges() {
+		return edges.getValues();
+	}
+
 	/**
 	 * Adds the given <tt>index</tt> to the set of indexes associated with <tt>this</tt>
 	 */
@@ -170,6 +214,20 @@ class Node {
 		return ret;
 	}
 
+	/**
+	 * Estimates the memory used by this node and everything below it.
+	 */
+	long getMemoryFootprint() {
+		long size = MemoryFootprint.object(3 * MemoryFootprint.REFERENCE + 2 * MemoryFootprint.INT);
+		size += MemoryFootprint.array(data.length, MemoryFootprint.INT);
+		size += edges.getMemoryFootprint();
+		for (Edge e : edges.getValues()) {
+			size += e.getMemoryFootprint();
+			size += e.getDest().getMemoryFootprint();
+		}
+		return size;
+	}
+
 	void addEdge(char ch, Edge e) {
 		edges.put(ch, e);
 	}
@@ -190,7 +248,7 @@ class Node {
 
 	private void addIndex(int index) {
 		if (lastIdx == data.length) {
-			int[] copy = new int[data.length + INCREMENT];
+			int[] copy = new int[data.length + Math.max(INCREMENT, data.length >> 1)];
 			System.arraycopy(data, 0, copy, 0, data.length);
 			data = copy;
 		}
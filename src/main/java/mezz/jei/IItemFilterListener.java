@@ -0,0 +1,13 @@
+package mezz.jei;
+
+public interface IItemFilterListener {
+	/**
+	 * Called on the Minecraft thread after a rebuilt item filter has replaced the previous one.
+	 */
+	void onItemFilterRebuilt();
+
+	/**
+	 * Called on the Minecraft thread when the ingredient list for a new filter text is done.
+	 */
+	void onIngredientListUpdated();
+}
@@ -0,0 +1,57 @@
+package mezz.jei;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableList;
+import mezz.jei.gui.ingredients.IIngredientListElement;
+import mezz.jei.search.SearchIndexCache;
+import mezz.jei.search.TokenPostings;
+
+/**
+ * The elements that the item filter is built from.
+ * When they were loaded from the {@link SearchIndexCache} this also has the cached search tokens,
+ * otherwise it has what needs to be saved to the cache once the search trees are built.
+ */
+public class IngredientBaseList {
+	private final ImmutableList<IIngredientListElement> elements;
+	private final SearchIndexCache.Key cacheKey;
+	@Nullable
+	private final Map<Character, TokenPostings> cachedTokens;
+	@Nullable
+	private final List<SearchIndexCache.CachedElement> elementsToCache;
+
+	public static IngredientBaseList createCached(ImmutableList<IIngredientListElement> elements, SearchIndexCache.Key cacheKey, Map<Character, TokenPostings> cachedTokens) {
+		return new IngredientBaseList(elements, cacheKey, cachedTokens, null);
+	}
+
+	public static IngredientBaseList createUncached(ImmutableList<IIngredientListElement> elements, SearchIndexCache.Key cacheKey, List<SearchIndexCache.CachedElement> elementsToCache) {
+		return new IngredientBaseList(elements, cacheKey, null, elementsToCache);
+	}
+
+	private IngredientBaseList(ImmutableList<IIngredientListElement> elements, SearchIndexCache.Key cacheKey, @Nullable Map<Character, TokenPostings> cachedTokens, @Nullable List<SearchIndexCache.CachedElement> elementsToCache) {
+		this.elements = elements;
+		this.cacheKey = cacheKey;
+		this.cachedTokens = cachedTokens;
+		this.elementsToCache = elementsToCache;
+	}
+
+	public ImmutableList<IIngredientListElement> getElements() {
+		return elements;
+	}
+
+	public SearchIndexCache.Key getCacheKey() {
+		return cacheKey;
+	}
+
+	@Nullable
+	public Map<Character, TokenPostings> getCachedTokens() {
+		return cachedTokens;
+	}
+
+	@Nullable
+	public List<SearchIndexCache.CachedElement> getElementsToCache() {
+		return elementsToCache;
+	}
+}
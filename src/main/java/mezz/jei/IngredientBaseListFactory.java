@@ -1,8 +1,11 @@
 package mezz.jei;
 
+import javax.annotation.Nullable;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -14,6 +17,7 @@ import mezz.jei.api.ingredients.IIngredientRenderer;
 import mezz.jei.config.Config;
 import mezz.jei.config.Constants;
 import mezz.jei.gui.ingredients.IIngredientListElement;
+import mezz.jei.search.SearchIndexCache;
 import mezz.jei.util.IngredientListElement;
 import mezz.jei.util.Java6Helper;
 import mezz.jei.util.Log;
@@ -24,7 +28,11 @@ public class IngredientBaseListFactory {
 
 	}
 
-	public static ImmutableList<IIngredientListElement> create() {
+	/**
+	 * Creates the elements for all visible ingredients.
+	 * If the search index cache is up to date, the elements get their search strings from it.
+	 */
+	public static IngredientBaseList create(@Nullable SearchIndexCache searchIndexCache) {
 		Log.info("Building item filter...");
 		long start_time = System.currentTimeMillis();
 
@@ -32,24 +40,136 @@ public class IngredientBaseListFactory {
 		JeiHelpers jeiHelpers = Internal.getHelpers();
 		IngredientChecker ingredientChecker = new IngredientChecker(jeiHelpers);
 
-		List<IIngredientListElement> ingredientListElements = new LinkedList<IIngredientListElement>();
+		SearchIndexCache.KeyBuilder cacheKeyBuilder = new SearchIndexCache.KeyBuilder();
+		List<VisibleIngredients> visibleIngredients = new ArrayList<VisibleIngredients>();
+		for (Class ingredientClass : getSortedIngredientClasses(ingredientRegistry)) {
+			cacheKeyBuilder.addIngredientClass(ingredientClass);
+			VisibleIngredients visible = getVisibleIngredients(ingredientRegistry, ingredientChecker, ingredientClass, cacheKeyBuilder);
+			visibleIngredients.add(visible);
+		}
+		SearchIndexCache.Key cacheKey = cacheKeyBuilder.build();
+
+		if (searchIndexCache != null) {
+			SearchIndexCache.Contents contents = searchIndexCache.load(cacheKey);
+			if (contents != null) {
+				ImmutableList<IIngredientListElement> cachedElements = createCachedElements(visibleIngredients, contents.getElements());
+				if (cachedElements != null) {
+					Log.info("Loaded item filter from the search index cache in {} ms", System.currentTimeMillis() - start_time);
+					return IngredientBaseList.createCached(cachedElements, cacheKey, contents.getTokens());
+				}
+			}
+		}
 
-		for (Class ingredientClass : ingredientRegistry.getRegisteredIngredientClasses()) {
-			addToBaseList(ingredientListElements, ingredientRegistry, ingredientChecker, ingredientClass);
+		List<IIngredientListElement> ingredientListElements = new LinkedList<IIngredientListElement>();
+		for (VisibleIngredients visible : visibleIngredients) {
+			visible.createElements(ingredientListElements);
 		}
 
 		sortIngredientListElements(ingredientListElements);
 		ImmutableList<IIngredientListElement> immutableElements = ImmutableList.copyOf(ingredientListElements);
+		List<SearchIndexCache.CachedElement> elementsToCache = createElementsToCache(visibleIngredients, immutableElements);
 
 		Log.info("Built	item filter in {} ms", System.currentTimeMillis() - start_time);
-		return immutableElements;
+		return IngredientBaseList.createUncached(immutableElements, cacheKey, elementsToCache);
 	}
 
-	private static <V> void addToBaseList(List<IIngredientListElement> baseList, IIngredientRegistry ingredientRegistry, IngredientChecker ingredientChecker, Class<V> ingredientClass) {
+	/**
+	 * Creates elements for ingredients that are added at runtime.
+	 * The elements are not sorted, they are meant to be appended to an existing ingredient list.
+	 */
+	public static <V> List<IIngredientListElement> create(Class<V> ingredientClass, List<V> ingredients) {
+		IIngredientRegistry ingredientRegistry = Internal.getIngredientRegistry();
+		JeiHelpers jeiHelpers = Internal.getHelpers();
+		IngredientChecker ingredientChecker = new IngredientChecker(jeiHelpers);
+
+		List<IIngredientListElement> ingredientListElements = new ArrayList<IIngredientListElement>();
+		addToBaseList(ingredientListElements, ingredientRegistry, ingredientChecker, ingredientClass, ingredients);
+		return ingredientListElements;
+	}
+
+	/**
+	 * The registry keeps ingredient classes in an identity map, sorting them keeps the search index cache key stable.
+	 */
+	private static List<Class> getSortedIngredientClasses(IIngredientRegistry ingredientRegistry) {
+		List<Class> ingredientClasses = new ArrayList<Class>(ingredientRegistry.getRegisteredIngredientClasses());
+		Collections.sort(ingredientClasses, new Comparator<Class>() {
+			@Override
+			public int compare(Class o1, Class o2) {
+				return o1.getName().compareTo(o2.getName());
+			}
+		});
+		return ingredientClasses;
+	}
+
+	private static <V> VisibleIngredients<V> getVisibleIngredients(IIngredientRegistry ingredientRegistry, IngredientChecker ingredientChecker, Class<V> ingredientClass, SearchIndexCache.KeyBuilder cacheKeyBuilder) {
+		IIngredientHelper<V> ingredientHelper = ingredientRegistry.getIngredientHelper(ingredientClass);
+		IIngredientRenderer<V> ingredientRenderer = ingredientRegistry.getIngredientRenderer(ingredientClass);
+		VisibleIngredients<V> visibleIngredients = new VisibleIngredients<V>(ingredientHelper, ingredientRenderer);
+
+		for (V ingredient : ingredientRegistry.getIngredients(ingredientClass)) {
+			if (ingredient != null && !ingredientChecker.isIngredientHidden(ingredient, ingredientHelper)) {
+				String uid;
+				try {
+					uid = ingredientHelper.getUniqueId(ingredient);
+				} catch (RuntimeException e) {
+					String ingredientInfo = ingredientHelper.getErrorInfo(ingredient);
+					Log.warning("Found a broken ingredient {}", ingredientInfo, e);
+					continue;
+				}
+				cacheKeyBuilder.addIngredient(uid);
+				visibleIngredients.add(ingredient, uid);
+			}
+		}
+
+		return visibleIngredients;
+	}
+
+	/**
+	 * @return the elements in the cached order, or null if an ingredient could not be found
+	 */
+	@Nullable
+	private static ImmutableList<IIngredientListElement> createCachedElements(List<VisibleIngredients> visibleIngredients, List<SearchIndexCache.CachedElement> cachedElements) {
+		ImmutableList.Builder<IIngredientListElement> elements = ImmutableList.builder();
+		for (SearchIndexCache.CachedElement cachedElement : cachedElements) {
+			int ingredientClassIndex = cachedElement.getIngredientClassIndex();
+			if (ingredientClassIndex < 0 || ingredientClassIndex >= visibleIngredients.size()) {
+				return null;
+			}
+			VisibleIngredients<?> visible = visibleIngredients.get(ingredientClassIndex);
+			IIngredientListElement element = visible.createCachedElement(cachedElement);
+			if (element == null) {
+				Log.warning("Search index cache has an unknown ingredient {}", cachedElement.getUid());
+				return null;
+			}
+			elements.add(element);
+		}
+		return elements.build();
+	}
+
+	private static List<SearchIndexCache.CachedElement> createElementsToCache(List<VisibleIngredients> visibleIngredients, List<IIngredientListElement> elements) {
+		Map<IIngredientHelper, Integer> ingredientClassIndexes = new IdentityHashMap<IIngredientHelper, Integer>();
+		Map<Object, Integer> ingredientIndexes = new IdentityHashMap<Object, Integer>();
+		for (int i = 0; i < visibleIngredients.size(); i++) {
+			VisibleIngredients<?> visible = visibleIngredients.get(i);
+			ingredientClassIndexes.put(visible.ingredientHelper, i);
+			visible.addIngredientIndexes(ingredientIndexes);
+		}
+
+		List<SearchIndexCache.CachedElement> elementsToCache = new ArrayList<SearchIndexCache.CachedElement>(elements.size());
+		for (IIngredientListElement element : elements) {
+			int ingredientClassIndex = ingredientClassIndexes.get(element.getIngredientHelper());
+			int ingredientIndex = ingredientIndexes.get(element.getIngredient());
+			VisibleIngredients<?> visible = visibleIngredients.get(ingredientClassIndex);
+			String uid = visible.uids.get(ingredientIndex);
+			elementsToCache.add(new SearchIndexCache.CachedElement(ingredientClassIndex, ingredientIndex, uid, element));
+		}
+		return elementsToCache;
+	}
+
+	private static <V> void addToBaseList(List<IIngredientListElement> baseList, IIngredientRegistry ingredientRegistry, IngredientChecker ingredientChecker, Class<V> ingredientClass, List<V> ingredients) {
 		IIngredientHelper<V> ingredientHelper = ingredientRegistry.getIngredientHelper(ingredientClass);
 		IIngredientRenderer<V> ingredientRenderer = ingredientRegistry.getIngredientRenderer(ingredientClass);
 
-		List<V> ingredients = ingredientRegistry.getIngredients(ingredientClass);
 		for (V ingredient : ingredients) {
 			if (ingredient != null && !ingredientChecker.isIngredientHidden(ingredient, ingredientHelper)) {
 				IngredientListElement<V> ingredientListElement = IngredientListElement.create(ingredient, ingredientHelper, ingredientRenderer);
@@ -116,6 +236,56 @@ public class IngredientBaseListFactory {
 		return ingredientHelper.getWildcardId(ingredient);
 	}
 
+	/**
+	 * The ingredients of one class that are not hidden, with their unique ids.
+	 */
+	private static class VisibleIngredients<V> {
+		private final IIngredientHelper<V> ingredientHelper;
+		private final IIngredientRenderer<V> ingredientRenderer;
+		private final List<V> ingredients = new ArrayList<V>();
+		private final List<String> uids = new ArrayList<String>();
+
+		public VisibleIngredients(IIngredientHelper<V> ingredientHelper, IIngredientRenderer<V> ingredientRenderer) {
+			this.ingredientHelper = ingredientHelper;
+			this.ingredientRenderer = ingredientRenderer;
+		}
+
+		public void add(V ingredient, String uid) {
+			ingredients.add(ingredient);
+			uids.add(uid);
+		}
+
+		public void createElements(List<IIngredientListElement> baseList) {
+			for (V ingredient : ingredients) {
+				IngredientListElement<V> ingredientListElement = IngredientListElement.create(ingredient, ingredientHelper, ingredientRenderer);
+				if (ingredientListElement != null) {
+					baseList.add(ingredientListElement);
+				}
+			}
+		}
+
+		/**
+		 * Finds the ingredient by its position, stacks that only differ in NBT can have the same uid.
+		 *
+		 * @return null if the position does not hold an ingredient with the cached uid
+		 */
+		@Nullable
+		public IngredientListElement<V> createCachedElement(SearchIndexCache.CachedElement cachedElement) {
+			int ingredientIndex = cachedElement.getIngredientIndex();
+			if (ingredientIndex < 0 || ingredientIndex >= ingredients.size() || !uids.get(ingredientIndex).equals(cachedElement.getUid())) {
+				return null;
+			}
+			V ingredient = ingredients.get(ingredientIndex);
+			return new IngredientListElement<V>(ingredient, ingredientHelper, cachedElement);
+		}
+
+		public void addIngredientIndexes(Map<Object, Integer> ingredientIndexes) {
+			for (int i = 0; i < ingredients.size(); i++) {
+				ingredientIndexes.put(ingredients.get(i), i);
+			}
+		}
+	}
+
 	private static class IngredientChecker {
 		private final IngredientBlacklist ingredientBlacklist;
 
@@ -0,0 +1,60 @@
+package mezz.jei;
+
+import javax.annotation.Nullable;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+import com.google.common.base.Preconditions;
+import mezz.jei.gui.ingredients.IIngredientListElement;
+import mezz.jei.search.IntBitmap;
+
+/**
+ * A read-only list of the ingredients of some of the item filter's elements, in index order.
+ * Only the indexes of the elements are kept, ingredients are looked up when they are read,
+ * so a search result isn't copied into a new list and showing a page only reads the ingredients on it.
+ * <p>
+ * Elements are only ever appended to the item filter, so the indexes stay valid when more are added.
+ */
+public class IngredientListView extends AbstractList<Object> implements RandomAccess {
+	private final List<IIngredientListElement> elements;
+	/**
+	 * The indexes of the listed elements, or null if the first {@link #size} elements are listed.
+	 */
+	@Nullable
+	private final int[] indexes;
+	private final int size;
+
+	/**
+	 * @return a view of the first elements
+	 */
+	public static IngredientListView create(List<IIngredientListElement> elements, int size) {
+		return new IngredientListView(elements, null, size);
+	}
+
+	/**
+	 * @return a view of the elements at the given indexes
+	 */
+	public static IngredientListView create(List<IIngredientListElement> elements, IntBitmap indexes) {
+		int[] indexArray = indexes.toArray();
+		return new IngredientListView(elements, indexArray, indexArray.length);
+	}
+
+	private IngredientListView(List<IIngredientListElement> elements, @Nullable int[] indexes, int size) {
+		this.elements = elements;
+		this.indexes = indexes;
+		this.size = size;
+	}
+
+	@Override
+	public Object get(int index) {
+		Preconditions.checkElementIndex(index, size);
+		int elementIndex = (indexes == null) ? index : indexes[index];
+		return elements.get(elementIndex).getIngredient();
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+}
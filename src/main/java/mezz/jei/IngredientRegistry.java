@@ -4,8 +4,10 @@ import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
@@ -153,7 +155,40 @@ public class IngredientRegistry implements IIngredientRegistry {
 		JeiRuntime runtime = Internal.getRuntime();
 		if (runtime != null) {
 			ItemListOverlay itemListOverlay = runtime.getItemListOverlay();
-			itemListOverlay.rebuildItemFilter();
+			itemListOverlay.addIngredients(ingredientClass, ingredients);
+		}
+	}
+
+	@Override
+	public <V> void removeIngredientsAtRuntime(@Nullable Class<V> ingredientClass, @Nullable List<V> ingredients) {
+		Preconditions.checkNotNull(ingredientClass, "ingredientClass cannot be null");
+		Preconditions.checkNotNull(ingredients, "ingredients cannot be null");
+		Preconditions.checkArgument(!ingredients.isEmpty(), "ingredients cannot be empty");
+
+		IIngredientHelper<V> ingredientHelper = getIngredientHelper(ingredientClass);
+
+		//noinspection unchecked
+		List<V> list = ingredientsMap.get(ingredientClass);
+		if (list != null) {
+			Set<String> removedUids = new HashSet<String>();
+			for (V ingredient : ingredients) {
+				removedUids.add(ingredientHelper.getUniqueId(ingredient));
+			}
+
+			List<V> remainingIngredients = new ArrayList<V>(list.size());
+			for (V ingredient : list) {
+				if (!removedUids.contains(ingredientHelper.getUniqueId(ingredient))) {
+					remainingIngredients.add(ingredient);
+				}
+			}
+			list.clear();
+			list.addAll(remainingIngredients);
+		}
+
+		JeiRuntime runtime = Internal.getRuntime();
+		if (runtime != null) {
+			ItemListOverlay itemListOverlay = runtime.getItemListOverlay();
+			itemListOverlay.removeIngredients(ingredientClass, ingredients);
 		}
 	}
 }
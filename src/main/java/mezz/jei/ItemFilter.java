@@ -1,27 +1,460 @@
 package mezz.jei;
 
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import mezz.jei.config.Config;
+import mezz.jei.gui.ingredients.IIngredientListElement;
+import mezz.jei.search.SearchIndexCache;
+import mezz.jei.search.SearchMetrics;
+import mezz.jei.search.SearchTreeStats;
+import mezz.jei.search.TokenPostings;
+import mezz.jei.util.Log;
+import net.minecraft.client.Minecraft;
 import net.minecraft.item.ItemStack;
 
 public class ItemFilter {
+	/**
+	 * Removed elements stay in the search trees until the next rebuild.
+	 * Once more than this fraction of the indexed elements are removed, the filter is rebuilt.
+	 */
+	private static final float maxRemovedFraction = 0.25f;
+	/**
+	 * In debug mode, the search metrics are appended to this file in the log directory at most this often.
+	 */
+	private static final long SEARCH_METRICS_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+	private static final String SEARCH_METRICS_FILE_NAME = "jei-search-metrics.csv";
+	/**
+	 * Builds the search trees for rebuilt filters, saves the search index cache and writes the search metrics,
+	 * so that the Minecraft thread is not blocked while they are built.
+	 */
+	private static final ExecutorService rebuildExecutor = Executors.newSingleThreadExecutor(
+			new ThreadFactoryBuilder()
+					.setNameFormat("JEI Item Filter Builder")
+					.setDaemon(true)
+					.build()
+	);
+	/**
+	 * Searches the item filter for new filter text and applies changes to it, so that slow searches don't stall the Minecraft thread.
+	 * It has one thread, so the internals are only used by one task at a time without locking them,
+	 * and a newer search can cancel the older one that is still running.
+	 */
+	private static final ExecutorService filterExecutor = Executors.newSingleThreadExecutor(
+			new ThreadFactoryBuilder()
+					.setNameFormat("JEI Item Filter Search")
+					.setDaemon(true)
+					.build()
+	);
 
+	@Nullable
+	private final SearchIndexCache searchIndexCache;
+	private final List<IItemFilterListener> listeners = new ArrayList<IItemFilterListener>();
+	/**
+	 * The timings of every search, kept when the internals are rebuilt.
+	 */
+	private final SearchMetrics searchMetrics = new SearchMetrics();
+	private long lastSearchMetricsWriteMillis = System.currentTimeMillis();
+	/**
+	 * Changes made to the ingredient list while a rebuild is running.
+	 * They are replayed on the rebuilt internals before it replaces the current one.
+	 */
+	private final List<IngredientListChange> pendingChanges = new ArrayList<IngredientListChange>();
+	/**
+	 * Once it is created, the internals are only used by tasks on the search thread.
+	 * The Minecraft thread only replaces this reference.
+	 */
 	private ItemFilterInternals internals;
+	private int rebuildGeneration = 0;
+	private boolean rebuilding = false;
+
+	/**
+	 * The last completed ingredient list, it is shown until the list for the current filter text is done.
+	 * Only accessed from the Minecraft thread, results from the search thread are handed over with a scheduled task.
+	 */
+	private List<Object> ingredientList = ImmutableList.of();
+	/**
+	 * The filter text of the last completed ingredient list, null if there is none yet.
+	 */
+	@Nullable
+	private String ingredientListFilterText;
+	/**
+	 * True if the ingredients changed since the last ingredient list was completed.
+	 */
+	private boolean ingredientListOutdated = false;
+	@Nullable
+	private Future<?> pendingFilter;
+	@Nullable
+	private String pendingFilterText;
+	private int filterGeneration = 0;
+
+	/**
+	 * @param searchIndexCache kept between starts of JEI, so that the indexes it keeps in memory can be reused.
+	 */
+	public ItemFilter(@Nullable SearchIndexCache searchIndexCache) {
+		this.searchIndexCache = searchIndexCache;
+
+		final IngredientBaseList baseList = IngredientBaseListFactory.create(searchIndexCache);
+		final ItemFilterInternals internals = new ItemFilterInternals(baseList, searchMetrics);
+		logMemoryFootprint(internals);
+		this.internals = internals;
+
+		rebuildExecutor.submit(new Runnable() {
+			@Override
+			public void run() {
+				saveSearchIndexCache(baseList, internals);
+			}
+		});
+	}
 
-	public ItemFilter() {
-		this.internals = new ItemFilterInternals();
+	public void addListener(IItemFilterListener listener) {
+		listeners.add(listener);
 	}
 
+	/**
+	 * Rebuilds the filter in the background.
+	 * The current filter keeps serving searches until the new one is ready to replace it.
+	 * Must be called from the Minecraft thread.
+	 */
 	public void rebuild() {
-		this.internals = new ItemFilterInternals();
+		// creating elements reads tooltips and other information that is only safe to get on the Minecraft thread
+		final IngredientBaseList baseList = IngredientBaseListFactory.create(searchIndexCache);
+
+		final int generation = ++rebuildGeneration;
+		rebuilding = true;
+		pendingChanges.clear();
+
+		rebuildExecutor.submit(new Runnable() {
+			@Override
+			public void run() {
+				final ItemFilterInternals rebuiltInternals = buildInternals(baseList, searchMetrics);
+				Minecraft.getMinecraft().addScheduledTask(new Runnable() {
+					@Override
+					public void run() {
+						onRebuilt(generation, rebuiltInternals);
+					}
+				});
+				if (rebuiltInternals != null) {
+					saveSearchIndexCache(baseList, rebuiltInternals);
+				}
+			}
+		});
+	}
+
+	@Nullable
+	private static ItemFilterInternals buildInternals(IngredientBaseList baseList, SearchMetrics searchMetrics) {
+		long start_time = System.currentTimeMillis();
+		try {
+			ItemFilterInternals internals = new ItemFilterInternals(baseList, searchMetrics);
+			Log.info("Built    item filter search trees in {} ms", System.currentTimeMillis() - start_time);
+			logMemoryFootprint(internals);
+			return internals;
+		} catch (RuntimeException e) {
+			Log.error("Failed to rebuild the item filter.", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Saves the tokens of newly built search trees, does nothing when they were loaded from the cache.
+	 */
+	private void saveSearchIndexCache(IngredientBaseList baseList, ItemFilterInternals internals) {
+		List<SearchIndexCache.CachedElement> elementsToCache = baseList.getElementsToCache();
+		Map<Character, TokenPostings> tokensToCache = internals.takeTokensToCache();
+		if (searchIndexCache != null && elementsToCache != null && tokensToCache != null) {
+			searchIndexCache.save(baseList.getCacheKey(), elementsToCache, tokensToCache);
+		}
+	}
+
+	private static void logMemoryFootprint(ItemFilterInternals internals) {
+		Log.info("Item filter search index ({}) uses about {} KB", internals.getSearchIndexType(), internals.getMemoryFootprint() / 1024);
+	}
+
+	private void onRebuilt(int generation, @Nullable ItemFilterInternals rebuiltInternals) {
+		if (generation != rebuildGeneration) {
+			// a newer rebuild was started, it will replace the internals when it is done
+			return;
+		}
+
+		if (rebuiltInternals != null) {
+			cancelPendingFilter();
+			for (IngredientListChange change : pendingChanges) {
+				submitChange(rebuiltInternals, change);
+			}
+			this.internals = rebuiltInternals;
+			this.ingredientListOutdated = true;
+		}
+		pendingChanges.clear();
+		rebuilding = false;
+
+		for (IItemFilterListener listener : listeners) {
+			listener.onItemFilterRebuilt();
+		}
+	}
+
+	/**
+	 * Adds new ingredients to the existing search index without rebuilding it.
+	 */
+	public <V> void addIngredients(Class<V> ingredientClass, List<V> ingredients) {
+		final List<IIngredientListElement> elements = IngredientBaseListFactory.create(ingredientClass, ingredients);
+		if (!elements.isEmpty()) {
+			applyChange(new IngredientListChange() {
+				@Override
+				public void apply(ItemFilterInternals internals) {
+					internals.addElements(elements);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Removes ingredients from the search index, rebuilding it if too many have been removed.
+	 */
+	public <V> void removeIngredients(final Class<V> ingredientClass, final List<V> ingredients) {
+		applyChange(new IngredientListChange() {
+			@Override
+			public void apply(ItemFilterInternals internals) {
+				internals.removeIngredients(ingredientClass, ingredients);
+			}
+		});
+	}
+
+	/**
+	 * Cancels the running search and queues the change after it on the search thread,
+	 * so that the Minecraft thread doesn't wait for the search to finish.
+	 */
+	private void applyChange(IngredientListChange change) {
+		cancelPendingFilter();
+		submitChange(this.internals, change);
+		this.ingredientListOutdated = true;
+		if (rebuilding) {
+			pendingChanges.add(change);
+		}
+	}
+
+	private void submitChange(final ItemFilterInternals internals, final IngredientListChange change) {
+		filterExecutor.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					change.apply(internals);
+				} catch (RuntimeException e) {
+					Log.error("Failed to change the item filter.", e);
+					return;
+				}
+				if (internals.getRemovedCount() > internals.getIndexedCount() * maxRemovedFraction) {
+					Minecraft.getMinecraft().addScheduledTask(new Runnable() {
+						@Override
+						public void run() {
+							onTooManyRemoved(internals);
+						}
+					});
+				}
+			}
+		});
+	}
+
+	private void onTooManyRemoved(ItemFilterInternals changedInternals) {
+		if (!rebuilding && changedInternals == this.internals) {
+			rebuild();
+		}
+	}
+
+	/**
+	 * Returns the last completed ingredient list.
+	 * If it is not for the current filter text, the new list is searched in the background
+	 * and listeners are notified when it is done.
+	 * Must be called from the Minecraft thread.
+	 */
+	public List<Object> getIngredientList() {
+		String filterText = Config.getFilterText();
+		if (ingredientListFilterText == null) {
+			// there is nothing to show yet, so this one search is done right away
+			ingredientList = searchNow(filterText);
+			ingredientListFilterText = filterText;
+			ingredientListOutdated = false;
+		} else if (ingredientListOutdated || !filterText.equals(ingredientListFilterText)) {
+			if (!filterText.equals(pendingFilterText)) {
+				startFilter(filterText);
+			}
+		}
+		return ingredientList;
+	}
+
+	private void startFilter(final String filterText) {
+		cancelPendingFilter();
+
+		final int generation = ++filterGeneration;
+		final ItemFilterInternals internals = this.internals;
+		pendingFilterText = filterText;
+		pendingFilter = filterExecutor.submit(new Runnable() {
+			@Override
+			public void run() {
+				final List<Object> filteredList;
+				try {
+					filteredList = internals.getIngredientList(filterText);
+				} catch (CancellationException ignored) {
+					return;
+				} catch (RuntimeException e) {
+					Log.error("Failed to filter the ingredient list with \"{}\".", filterText, e);
+					return;
+				}
+				Minecraft.getMinecraft().addScheduledTask(new Runnable() {
+					@Override
+					public void run() {
+						onFiltered(generation, filterText, filteredList);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Cancels the running search, its result will not be used.
+	 * The search stops at its next cancellation check, the search trees check every few thousand indexes.
+	 */
+	private void cancelPendingFilter() {
+		if (pendingFilter != null) {
+			pendingFilter.cancel(true);
+			pendingFilter = null;
+		}
+		pendingFilterText = null;
+		filterGeneration++;
+	}
+
+	private void onFiltered(int generation, String filterText, List<Object> filteredList) {
+		if (generation != filterGeneration) {
+			// a newer search was started or the ingredients changed, this result is already outdated
+			return;
+		}
+
+		this.pendingFilter = null;
+		this.pendingFilterText = null;
+		setIngredientList(filterText, filteredList);
+		writeSearchMetricsIfDue();
+	}
+
+	/**
+	 * In debug mode, appends the search metrics to the CSV file in the log directory once a minute while searching.
+	 * The search tree stats are taken on the search thread, and the file is written on the builder thread.
+	 */
+	private void writeSearchMetricsIfDue() {
+		long now = System.currentTimeMillis();
+		if (!Config.isDebugModeEnabled() || now - lastSearchMetricsWriteMillis < SEARCH_METRICS_INTERVAL_MILLIS) {
+			return;
+		}
+		lastSearchMetricsWriteMillis = now;
+
+		final ItemFilterInternals internals = this.internals;
+		final File file = new File(new File(Minecraft.getMinecraft().mcDataDir, "logs"), SEARCH_METRICS_FILE_NAME);
+		filterExecutor.submit(new Runnable() {
+			@Override
+			public void run() {
+				final Map<String, SearchTreeStats> searchTreeStats = internals.getSearchTreeStats();
+				rebuildExecutor.submit(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							searchMetrics.writeCsv(file, searchTreeStats);
+						} catch (IOException e) {
+							Log.error("Failed to write the search metrics to {}", file, e);
+						}
+					}
+				});
+			}
+		});
+	}
+
+	private void setIngredientList(String filterText, List<Object> filteredList) {
+		this.ingredientList = filteredList;
+		this.ingredientListFilterText = filterText;
+		this.ingredientListOutdated = false;
+
+		for (IItemFilterListener listener : listeners) {
+			listener.onIngredientListUpdated();
+		}
+	}
+
+	/**
+	 * Returns the ingredient list for the current filter text,
+	 * searching it right away instead of in the background if the last completed list is not for it.
+	 * Must be called from the Minecraft thread.
+	 */
+	private List<Object> getCurrentIngredientList() {
+		String filterText = Config.getFilterText();
+		if (ingredientListFilterText == null || ingredientListOutdated || !filterText.equals(ingredientListFilterText)) {
+			List<Object> filteredList = searchNow(filterText);
+			setIngredientList(filterText, filteredList);
+		}
+		return ingredientList;
+	}
+
+	private List<Object> searchNow(final String filterText) {
+		final ItemFilterInternals internals = this.internals;
+		return callOnSearchThread(new Callable<List<Object>>() {
+			@Override
+			public List<Object> call() {
+				return internals.getIngredientList(filterText);
+			}
+		});
+	}
+
+	/**
+	 * Runs the task on the search thread and waits for its result, for the few callers that need it right away.
+	 * The running search is cancelled first, so this only waits for it to reach its next cancellation check
+	 * and for the changes that were queued before the task.
+	 * Must be called from the Minecraft thread.
+	 */
+	private <T> T callOnSearchThread(Callable<T> task) {
+		cancelPendingFilter();
+		Future<T> future = filterExecutor.submit(task);
+		return Futures.getUnchecked(future);
+	}
+
+	/**
+	 * @return the hit and miss counts of the current search index's search results cache
+	 */
+	public CacheStats getSearchResultsCacheStats() {
+		return this.internals.getSearchResultsCacheStats();
 	}
 
-	public ImmutableList<Object> getIngredientList() {
-		return this.internals.getIngredientList();
+	public SearchMetrics getSearchMetrics() {
+		return searchMetrics;
 	}
 
+	/**
+	 * @return the size of each of the current search index's trees
+	 */
+	public Map<String, SearchTreeStats> getSearchTreeStats() {
+		final ItemFilterInternals internals = this.internals;
+		return callOnSearchThread(new Callable<Map<String, SearchTreeStats>>() {
+			@Override
+			public Map<String, SearchTreeStats> call() {
+				return internals.getSearchTreeStats();
+			}
+		});
+	}
+
+	/**
+	 * Returns the item stacks matching the current filter text, even if the list shown is not updated for it yet.
+	 * Must be called from the Minecraft thread.
+	 */
 	public ImmutableList<ItemStack> getItemStacks() {
 		ImmutableList.Builder<ItemStack> filteredStacks = ImmutableList.builder();
-		for (Object ingredient : getIngredientList()) {
+		for (Object ingredient : getCurrentIngredientList()) {
 			if (ingredient instanceof ItemStack) {
 				filteredStacks.add((ItemStack) ingredient);
 			}
@@ -29,7 +462,14 @@ public class ItemFilter {
 		return filteredStacks.build();
 	}
 
+	/**
+	 * @return the size of the last completed ingredient list, the one that is shown
+	 */
 	public int size() {
-		return getIngredientList().size();
+		return ingredientList.size();
+	}
+
+	private interface IngredientListChange {
+		void apply(ItemFilterInternals internals);
 	}
 }
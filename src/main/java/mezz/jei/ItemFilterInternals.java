@@ -1,192 +1,1049 @@
 package mezz.jei;
 
 import javax.annotation.Nullable;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 import com.abahgat.suffixtree.GeneralizedSuffixTree;
-import com.google.common.collect.ImmutableList;
-import gnu.trove.set.TIntSet;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import gnu.trove.iterator.TIntIterator;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import mezz.jei.api.ingredients.IIngredientHelper;
 import mezz.jei.config.Config;
 import mezz.jei.gui.ingredients.IIngredientListElement;
-import mezz.jei.util.Log;
+import mezz.jei.search.GeneralizedSuffixArray;
+import mezz.jei.search.ISearchTree;
+import mezz.jei.search.IntBitmap;
+import mezz.jei.search.SearchCancellation;
+import mezz.jei.search.SearchMetrics;
+import mezz.jei.search.SearchPattern;
+import mezz.jei.search.SearchTreeStats;
+import mezz.jei.search.TokenPostings;
+import mezz.jei.search.TokenSearchTree;
+import mezz.jei.search.TrigramIndex;
 
 public class ItemFilterInternals {
+	private static final Pattern spaces = Pattern.compile(" ");
+	/**
+	 * Key of the combined search tree's tokens, prefixed search trees use their prefix.
+	 */
+	private static final char NO_PREFIX = ' ';
+	/**
+	 * Words starting with this exclude the elements they match.
+	 */
+	private static final char NEGATION_PREFIX = '-';
+	/**
+	 * When narrowing down the last matches, candidate sets up to this size are checked against each element's strings
+	 * instead of searching the tree.
+	 */
+	private static final int MAX_CHECKED_CANDIDATES = 1000;
+	/**
+	 * The number of search results kept in the search results cache.
+	 */
+	private static final int MAX_CACHED_SEARCH_RESULTS = 256;
+	/**
+	 * How long a fuzzy search can check candidates for, for each word.
+	 */
+	private static final long FUZZY_SEARCH_TIME_BUDGET = TimeUnit.MILLISECONDS.toNanos(20);
 
-	private ImmutableList<Object> baseList;
-	private GeneralizedSuffixTree searchTree;
-	private GeneralizedSuffixTree modNameTree;
-	private GeneralizedSuffixTree tooltipTree;
-	private GeneralizedSuffixTree oreDictTree;
-	private GeneralizedSuffixTree creativeTabTree;
-	private GeneralizedSuffixTree colorTree;
-	private Map<Character, GeneralizedSuffixTree> prefixedSearchTrees = new HashMap<Character, GeneralizedSuffixTree>();
+	/**
+	 * All elements that have been indexed, in index order.
+	 * Elements are only ever appended so that the suffix trees receive non-decreasing indexes.
+	 */
+	private final List<IIngredientListElement> elements;
+	/**
+	 * Indexes of elements that were removed at runtime.
+	 * The suffix trees can't remove entries, so removed elements are filtered out of search results instead.
+	 */
+	private final IntBitmap removedIndexes = new IntBitmap();
+	/**
+	 * Unique id to element indexes, only built when the first element is removed.
+	 */
+	@Nullable
+	private Map<String, TIntArrayList> uidIndexes;
+	@Nullable
+	private IngredientListView baseList;
+
+	private final Config.SearchIndexType searchIndexType;
+	private final ISearchTree searchTree;
+	private final Map<Character, PrefixedSearchTree> prefixedSearchTrees = new HashMap<Character, PrefixedSearchTree>();
+	/**
+	 * The words of each element's display name, for words that have no exact matches.
+	 * Null when fuzzy search is disabled.
+	 */
+	@Nullable
+	private final TrigramIndex fuzzyIndex;
+	/**
+	 * The tokens the search trees were built from, kept until they are saved to the search index cache.
+	 */
+	@Nullable
+	private Map<Character, TokenPostings> tokensToCache;
 
 	@Nullable
 	private String filterCached;
-	private ImmutableList<Object> ingredientListCached = ImmutableList.of();
+	/**
+	 * The terms and matches of each '|' alternative of the last filter.
+	 * When the next filter only adds to them, its matches are narrowed down from these instead of searched from scratch.
+	 */
+	private List<QueryResult> lastQueryResults = Collections.emptyList();
+	/**
+	 * The results of recent searches of each tree, so switching between a few filters doesn't search the trees again.
+	 * The cached bitmaps are shared and must not be modified.
+	 */
+	private final Cache<SearchTerm, IntBitmap> searchResultsCache = CacheBuilder.newBuilder()
+			.maximumSize(MAX_CACHED_SEARCH_RESULTS)
+			.recordStats()
+			.build();
+	private IngredientListView ingredientListCached;
+	private final SearchMetrics metrics;
+	/**
+	 * The time spent searching trees during the current search, so that it isn't counted as intersection time.
+	 */
+	private long termSearchNanos;
 
-	public ItemFilterInternals() {
-		List<IIngredientListElement> ingredientList = IngredientBaseListFactory.create();
-		ImmutableList.Builder<Object> baseListBuilder = ImmutableList.builder();
-		for (IIngredientListElement element : ingredientList) {
-			baseListBuilder.add(element.getIngredient());
-		}
-		this.baseList = baseListBuilder.build();
+	public ItemFilterInternals(IngredientBaseList baseList, SearchMetrics metrics) {
+		this(baseList.getElements(), baseList.getCachedTokens(), Runtime.getRuntime().availableProcessors() > 1, metrics);
+	}
 
-		this.searchTree = new GeneralizedSuffixTree();
+	/**
+	 * @param cachedTokens    the tokens of each search tree from the search index cache.
+	 *                        When this is null, the tokens are created from the strings of each element.
+	 * @param buildInParallel build each search tree on its own thread.
+	 *                        Otherwise they are all built on the calling thread.
+	 * @param metrics         records the timings of each search.
+	 */
+	public ItemFilterInternals(List<IIngredientListElement> ingredientList, @Nullable Map<Character, TokenPostings> cachedTokens, boolean buildInParallel, SearchMetrics metrics) {
+		this.elements = new ArrayList<IIngredientListElement>(ingredientList);
+		this.metrics = metrics;
+		this.ingredientListCached = IngredientListView.create(this.elements, 0);
 
-		this.prefixedSearchTrees.put('@', this.modNameTree = new GeneralizedSuffixTree());
-		this.prefixedSearchTrees.put('#', this.tooltipTree = new GeneralizedSuffixTree());
-		this.prefixedSearchTrees.put('$', this.oreDictTree = new GeneralizedSuffixTree());
-		this.prefixedSearchTrees.put('%', this.creativeTabTree = new GeneralizedSuffixTree());
-		this.prefixedSearchTrees.put('^', this.colorTree = new GeneralizedSuffixTree());
+		this.searchIndexType = Config.getSearchIndexType();
+		this.searchTree = createSearchTree(searchIndexType);
+		createPrefixedSearchTrees();
 
-		buildSuffixTrees(ingredientList);
-	}
+		Map<Character, TokenPostings> tokens = buildSuffixTrees(cachedTokens, buildInParallel);
+		if (cachedTokens == null) {
+			this.tokensToCache = tokens;
+		}
 
-	private void buildSuffixTrees(List<IIngredientListElement> ingredientList) {
-		Pattern spaces = Pattern.compile(" ");
+		if (Config.isFuzzySearchEnabled()) {
+			this.fuzzyIndex = new TrigramIndex();
+			for (int i = 0; i < elements.size(); i++) {
+				addToFuzzyIndex(fuzzyIndex, elements.get(i), i);
+			}
+		} else {
+			this.fuzzyIndex = null;
+		}
+	}
 
-		for (int i = 0; i < ingredientList.size(); i++) {
-			IIngredientListElement element = ingredientList.get(i);
-			putSplit(searchTree, element.getDisplayName(), i);
+	private static ISearchTree createSearchTree(Config.SearchIndexType searchIndexType) {
+		switch (searchIndexType) {
+			case SUFFIX_ARRAY:
+				return new GeneralizedSuffixArray();
+			case SUFFIX_TREE:
+			default:
+				// the suffix array already stores each distinct key once, the suffix tree needs a token dictionary for that
+				return new TokenSearchTree(new GeneralizedSuffixTree());
+		}
+	}
 
-			Config.SearchMode modNameSearchMode = Config.getModNameSearchMode();
-			if (modNameSearchMode != Config.SearchMode.DISABLED) {
+	private void createPrefixedSearchTrees() {
+		addPrefixedSearchTree('@', new PrefixedSearchTree.IStringsGetter() {
+			@Override
+			public Collection<String> getStrings(IIngredientListElement element) {
 				String modNameString = element.getModName();
 				String modIdString = element.getModId();
-				putSplit(modNameTree, modNameString, i);
-				putSplit(modNameTree, modIdString, i);
-				putSplit(modNameTree, spaces.matcher(modNameString).replaceAll(""), i);
-				putSplit(modNameTree, spaces.matcher(modIdString).replaceAll(""), i);
-				if (modNameSearchMode == Config.SearchMode.ENABLED) {
-					putSplit(searchTree, modNameString, i);
-					putSplit(searchTree, modIdString, i);
-					putSplit(searchTree, spaces.matcher(modNameString).replaceAll(""), i);
-					putSplit(searchTree, spaces.matcher(modIdString).replaceAll(""), i);
-				}
+				return Arrays.asList(
+						modNameString,
+						modIdString,
+						spaces.matcher(modNameString).replaceAll(""),
+						spaces.matcher(modIdString).replaceAll("")
+				);
+			}
+		}, new PrefixedSearchTree.IModeGetter() {
+			@Override
+			public Config.SearchMode getMode() {
+				return Config.getModNameSearchMode();
+			}
+		});
+		addPrefixedSearchTree('#', new PrefixedSearchTree.IStringsGetter() {
+			@Override
+			public Collection<String> getStrings(IIngredientListElement element) {
+				return Collections.singleton(element.getTooltipString());
+			}
+		}, new PrefixedSearchTree.IModeGetter() {
+			@Override
+			public Config.SearchMode getMode() {
+				return Config.getTooltipSearchMode();
+			}
+		});
+		addPrefixedSearchTree('$', new PrefixedSearchTree.IStringsGetter() {
+			@Override
+			public Collection<String> getStrings(IIngredientListElement element) {
+				return Collections.singleton(element.getOreDictString());
+			}
+		}, new PrefixedSearchTree.IModeGetter() {
+			@Override
+			public Config.SearchMode getMode() {
+				return Config.getOreDictSearchMode();
 			}
+		});
+		addPrefixedSearchTree('%', new PrefixedSearchTree.IStringsGetter() {
+			@Override
+			public Collection<String> getStrings(IIngredientListElement element) {
+				return Collections.singleton(element.getCreativeTabsString());
+			}
+		}, new PrefixedSearchTree.IModeGetter() {
+			@Override
+			public Config.SearchMode getMode() {
+				return Config.getCreativeTabSearchMode();
+			}
+		});
+		addPrefixedSearchTree('^', new PrefixedSearchTree.IStringsGetter() {
+			@Override
+			public Collection<String> getStrings(IIngredientListElement element) {
+				return Collections.singleton(element.getColorString());
+			}
+		}, new PrefixedSearchTree.IModeGetter() {
+			@Override
+			public Config.SearchMode getMode() {
+				return Config.getColorSearchMode();
+			}
+		});
+	}
 
-			Config.SearchMode tooltipSearchMode = Config.getTooltipSearchMode();
-			if (tooltipSearchMode != Config.SearchMode.DISABLED) {
-				String tooltipString = element.getTooltipString();
+	private void addPrefixedSearchTree(char prefix, PrefixedSearchTree.IStringsGetter stringsGetter, PrefixedSearchTree.IModeGetter modeGetter) {
+		PrefixedSearchTree prefixedTree = new PrefixedSearchTree(prefix, createSearchTree(searchIndexType), stringsGetter, modeGetter);
+		this.prefixedSearchTrees.put(prefix, prefixedTree);
+	}
 
-				putSplit(tooltipTree, tooltipString, i);
-				if (tooltipSearchMode == Config.SearchMode.ENABLED) {
-					putSplit(searchTree, tooltipString, i);
+	/**
+	 * The trees are independent of each other, so each one is built by its own task.
+	 * A task gets the tree's tokens from the cache or from the strings of each element, then fills the tree with them.
+	 *
+	 * @return the tokens of each search tree
+	 */
+	private Map<Character, TokenPostings> buildSuffixTrees(@Nullable final Map<Character, TokenPostings> cachedTokens, boolean buildInParallel) {
+		Map<Character, Callable<TokenPostings>> tasks = new LinkedHashMap<Character, Callable<TokenPostings>>();
+		tasks.put(NO_PREFIX, new Callable<TokenPostings>() {
+			@Override
+			public TokenPostings call() {
+				TokenPostings tokens = (cachedTokens == null) ? null : cachedTokens.get(NO_PREFIX);
+				if (tokens == null) {
+					tokens = new TokenPostings();
+					for (int i = 0; i < elements.size(); i++) {
+						addToSearchTree(tokens, elements.get(i), i);
+					}
 				}
+				tokens.fill(searchTree);
+				return tokens;
 			}
+		});
+		for (final PrefixedSearchTree prefixedTree : this.prefixedSearchTrees.values()) {
+			if (prefixedTree.getMode() != Config.SearchMode.DISABLED) {
+				tasks.put(prefixedTree.getPrefix(), new Callable<TokenPostings>() {
+					@Override
+					public TokenPostings call() {
+						TokenPostings tokens = (cachedTokens == null) ? null : cachedTokens.get(prefixedTree.getPrefix());
+						if (tokens == null) {
+							tokens = new TokenPostings();
+							for (int i = 0; i < elements.size(); i++) {
+								addToPrefixedSearchTree(prefixedTree, tokens, elements.get(i), i);
+							}
+						}
+						tokens.fill(prefixedTree.getTree());
+						return tokens;
+					}
+				});
+			}
+		}
 
-			Config.SearchMode oreDictSearchMode = Config.getOreDictSearchMode();
-			if (oreDictSearchMode != Config.SearchMode.DISABLED) {
-				String oreDictString = element.getOreDictString();
-				putSplit(oreDictTree, oreDictString, i);
-				if (oreDictSearchMode == Config.SearchMode.ENABLED) {
-					putSplit(searchTree, oreDictString, i);
+		Map<Character, TokenPostings> tokens = new HashMap<Character, TokenPostings>();
+		if (buildInParallel) {
+			buildSuffixTreesInParallel(tasks, tokens);
+		} else {
+			for (Map.Entry<Character, Callable<TokenPostings>> entry : tasks.entrySet()) {
+				try {
+					tokens.put(entry.getKey(), entry.getValue().call());
+				} catch (Exception e) {
+					throw new IllegalStateException("Failed to build search trees.", e);
 				}
 			}
+		}
+		return tokens;
+	}
+
+	private static void buildSuffixTreesInParallel(Map<Character, Callable<TokenPostings>> tasks, Map<Character, TokenPostings> tokens) {
+		ExecutorService executor = Executors.newFixedThreadPool(
+				Math.min(tasks.size(), Runtime.getRuntime().availableProcessors()),
+				new ThreadFactoryBuilder()
+						.setNameFormat("JEI Search Tree Builder %d")
+						.setDaemon(true)
+						.build()
+		);
+		try {
+			List<Character> keys = new ArrayList<Character>(tasks.keySet());
+			List<Future<TokenPostings>> futures = executor.invokeAll(tasks.values());
+			for (int i = 0; i < futures.size(); i++) {
+				tokens.put(keys.get(i), futures.get(i).get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while building search trees.", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Failed to build search trees.", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
 
-			Config.SearchMode creativeTabSearchMode = Config.getCreativeTabSearchMode();
-			if (creativeTabSearchMode != Config.SearchMode.DISABLED) {
-				String creativeTabsString = element.getCreativeTabsString();
-				putSplit(creativeTabTree, creativeTabsString, i);
-				if (creativeTabSearchMode == Config.SearchMode.ENABLED) {
-					putSplit(searchTree, creativeTabsString, i);
+	/**
+	 * Returns the tokens the search trees were built from, so they can be saved to the search index cache.
+	 * They are only kept until this is called, and are null when the trees were built from the cache.
+	 */
+	@Nullable
+	public Map<Character, TokenPostings> takeTokensToCache() {
+		Map<Character, TokenPostings> tokens = this.tokensToCache;
+		this.tokensToCache = null;
+		return tokens;
+	}
+
+	/**
+	 * Appends new elements to the existing search trees.
+	 * Takes time proportional to the number of new elements, they are shown at the end of the ingredient list.
+	 */
+	public void addElements(List<IIngredientListElement> newElements) {
+		for (IIngredientListElement element : newElements) {
+			int index = elements.size();
+			elements.add(element);
+			addToSuffixTrees(element, index);
+			if (fuzzyIndex != null) {
+				addToFuzzyIndex(fuzzyIndex, element, index);
+			}
+			if (uidIndexes != null) {
+				addUidIndex(uidIndexes, element, index);
+			}
+		}
+		freezeSuffixTrees();
+		onElementsChanged();
+	}
+
+	/**
+	 * Removes all elements matching the unique ids of the given ingredients.
+	 *
+	 * @return the number of elements that were removed
+	 */
+	public <V> int removeIngredients(Class<V> ingredientClass, List<V> ingredients) {
+		if (uidIndexes == null) {
+			uidIndexes = buildUidIndexes(elements);
+		}
+
+		int removedCount = 0;
+		IIngredientHelper<V> ingredientHelper = Internal.getIngredientRegistry().getIngredientHelper(ingredientClass);
+		for (V ingredient : ingredients) {
+			String uid = ingredientHelper.getUniqueId(ingredient);
+			TIntArrayList indexes = uidIndexes.get(uid);
+			if (indexes != null) {
+				// other ingredient types can have the same uid, their indexes stay in the list
+				for (int i = indexes.size() - 1; i >= 0; i--) {
+					int index = indexes.get(i);
+					Object element = elements.get(index).getIngredient();
+					if (ingredientClass.isInstance(element)) {
+						indexes.removeAt(i);
+						if (!removedIndexes.contains(index)) {
+							removedIndexes.add(index);
+							removedCount++;
+						}
+					}
+				}
+				if (indexes.isEmpty()) {
+					uidIndexes.remove(uid);
 				}
 			}
+		}
+
+		if (removedCount > 0) {
+			onElementsChanged();
+		}
+		return removedCount;
+	}
 
-			Config.SearchMode colorSearchMode = Config.getColorSearchMode();
-			if (colorSearchMode != Config.SearchMode.DISABLED) {
-				String colorString = element.getColorString();
-				putSplit(colorTree, colorString, i);
-				if (colorSearchMode == Config.SearchMode.ENABLED) {
-					putSplit(searchTree, colorString, i);
+	/**
+	 * @return an estimate of the memory used by all of the search trees, in bytes
+	 */
+	public long getMemoryFootprint() {
+		long size = searchTree.getMemoryFootprint();
+		for (PrefixedSearchTree prefixedTree : this.prefixedSearchTrees.values()) {
+			size += prefixedTree.getTree().getMemoryFootprint();
+		}
+		return size;
+	}
+
+	/**
+	 * @return the size of each search tree, by "default" for the combined search tree and by prefix for the prefixed ones
+	 */
+	public Map<String, SearchTreeStats> getSearchTreeStats() {
+		Map<String, SearchTreeStats> stats = new LinkedHashMap<String, SearchTreeStats>();
+		stats.put("default", searchTree.getStats());
+		for (PrefixedSearchTree prefixedTree : this.prefixedSearchTrees.values()) {
+			stats.put(String.valueOf(prefixedTree.getPrefix()), prefixedTree.getTree().getStats());
+		}
+		return stats;
+	}
+
+	/**
+	 * @return the hit and miss counts of the search results cache
+	 */
+	public CacheStats getSearchResultsCacheStats() {
+		return searchResultsCache.stats();
+	}
+
+	public Config.SearchIndexType getSearchIndexType() {
+		return searchIndexType;
+	}
+
+	/**
+	 * @return the number of indexed elements, including removed ones.
+	 */
+	public int getIndexedCount() {
+		return elements.size();
+	}
+
+	/**
+	 * @return the number of indexed elements that have been removed since the search trees were built.
+	 */
+	public int getRemovedCount() {
+		return removedIndexes.getCardinality();
+	}
+
+	private void onElementsChanged() {
+		baseList = null;
+		filterCached = null;
+		lastQueryResults = Collections.emptyList();
+		searchResultsCache.invalidateAll();
+	}
+
+	private static Map<String, TIntArrayList> buildUidIndexes(List<IIngredientListElement> elements) {
+		Map<String, TIntArrayList> uidIndexes = new HashMap<String, TIntArrayList>();
+		for (int i = 0; i < elements.size(); i++) {
+			addUidIndex(uidIndexes, elements.get(i), i);
+		}
+		return uidIndexes;
+	}
+
+	private static <V> void addUidIndex(Map<String, TIntArrayList> uidIndexes, IIngredientListElement<V> element, int index) {
+		IIngredientHelper<V> ingredientHelper = element.getIngredientHelper();
+		String uid = ingredientHelper.getUniqueId(element.getIngredient());
+		TIntArrayList indexes = uidIndexes.get(uid);
+		if (indexes == null) {
+			indexes = new TIntArrayList(1);
+			uidIndexes.put(uid, indexes);
+		}
+		indexes.add(index);
+	}
+
+	private void freezeSuffixTrees() {
+		searchTree.freeze();
+		for (PrefixedSearchTree prefixedTree : this.prefixedSearchTrees.values()) {
+			prefixedTree.getTree().freeze();
+		}
+	}
+
+	private void addToSuffixTrees(IIngredientListElement element, int index) {
+		for (String string : getSearchTreeStrings(element)) {
+			putSplit(searchTree, string, index);
+		}
+		for (PrefixedSearchTree prefixedTree : this.prefixedSearchTrees.values()) {
+			if (prefixedTree.getMode() != Config.SearchMode.DISABLED) {
+				for (String string : prefixedTree.getStrings(element)) {
+					putSplit(prefixedTree.getTree(), string, index);
 				}
 			}
 		}
 	}
 
-	private static void putSplit(GeneralizedSuffixTree tree, String key, int index) {
-		String[] strings = key.split(" ");
-		for (String string : strings) {
+	private void addToSearchTree(TokenPostings tokens, IIngredientListElement element, int index) {
+		for (String string : getSearchTreeStrings(element)) {
+			putSplit(tokens, string, index);
+		}
+	}
+
+	private static void addToPrefixedSearchTree(PrefixedSearchTree prefixedTree, TokenPostings tokens, IIngredientListElement element, int index) {
+		for (String string : prefixedTree.getStrings(element)) {
+			putSplit(tokens, string, index);
+		}
+	}
+
+	/**
+	 * The combined search tree has the display name and the strings of every prefixed search that doesn't require its prefix.
+	 */
+	private List<String> getSearchTreeStrings(IIngredientListElement element) {
+		List<String> strings = new ArrayList<String>();
+		strings.add(element.getDisplayName());
+		for (PrefixedSearchTree prefixedTree : this.prefixedSearchTrees.values()) {
+			if (prefixedTree.getMode() == Config.SearchMode.ENABLED) {
+				strings.addAll(prefixedTree.getStrings(element));
+			}
+		}
+		return strings;
+	}
+
+	private static void addToFuzzyIndex(TrigramIndex fuzzyIndex, IIngredientListElement element, int index) {
+		for (String word : spaces.split(element.getDisplayName())) {
+			if (!word.isEmpty()) {
+				fuzzyIndex.put(word, index);
+			}
+		}
+	}
+
+	private static void putSplit(ISearchTree tree, String key, int index) {
+		for (String string : spaces.split(key)) {
 			if (!string.isEmpty()) {
 				tree.put(string, index);
 			}
 		}
 	}
 
-	public ImmutableList<Object> getIngredientList() {
-		if (!Config.getFilterText().equals(filterCached)) {
-			ingredientListCached = getIngredientListUncached();
-			filterCached = Config.getFilterText();
+	private static void putSplit(TokenPostings tokens, String key, int index) {
+		for (String string : spaces.split(key)) {
+			if (!string.isEmpty()) {
+				tokens.put(string, index);
+			}
+		}
+	}
+
+	/**
+	 * Searches can run on a background thread, it must not change the internals at the same time.
+	 * Interrupting the thread cancels the search, the long loops of the search check for it with {@link SearchCancellation}.
+	 *
+	 * @throws CancellationException if the thread was interrupted before the search was done
+	 */
+	public IngredientListView getIngredientList(String filterText) throws CancellationException {
+		if (!filterText.equals(filterCached)) {
+			long start = System.nanoTime();
+			try {
+				ingredientListCached = getIngredientListUncached(filterText);
+			} catch (CancellationException e) {
+				metrics.increment(SearchMetrics.Counter.CANCELLED_QUERIES);
+				throw e;
+			}
+			metrics.record(SearchMetrics.Stage.QUERY, System.nanoTime() - start);
+			filterCached = filterText;
 		}
 		return ingredientListCached;
 	}
 
-	private ImmutableList<Object> getIngredientListUncached() {
-		String[] filters = Config.getFilterText().split("\\|");
+	/**
+	 * Alternatives separated by '|' are searched separately and their matches are combined,
+	 * each matching element is listed once and in index order.
+	 */
+	private IngredientListView getIngredientListUncached(String filterText) {
+		long start = System.nanoTime();
+		long parseNanos = 0;
+		termSearchNanos = 0;
 
-		if (filters.length == 1) {
-			String filter = filters[0];
-			return getElements(filter);
-		} else {
-			ImmutableList.Builder<Object> ingredientList = ImmutableList.builder();
-			for (String filter : filters) {
-				List<Object> ingredients = getElements(filter);
-				ingredientList.addAll(ingredients);
+		String[] filters = filterText.split("\\|");
+
+		List<QueryResult> queryResults = new ArrayList<QueryResult>(filters.length);
+		IntBitmap matches = null;
+		boolean matchesAll = false;
+		for (int i = 0; i < filters.length; i++) {
+			long parseStart = System.nanoTime();
+			List<SearchTerm> terms = getSearchTerms(filters[i]);
+			parseNanos += System.nanoTime() - parseStart;
+			QueryResult lastQueryResult = (i < lastQueryResults.size()) ? lastQueryResults.get(i) : null;
+			QueryResult queryResult = search(terms, lastQueryResult);
+			queryResults.add(queryResult);
+
+			IntBitmap filterMatches = queryResult.getMatches();
+			if (filterMatches == null) {
+				matchesAll = true;
+			} else if (matches == null) {
+				matches = filterMatches.copy();
+			} else {
+				matches.or(filterMatches);
 			}
-			return ingredientList.build();
 		}
+		lastQueryResults = queryResults;
+
+		IngredientListView ingredientList;
+		long materializationStart;
+		if (matchesAll || matches == null) {
+			materializationStart = System.nanoTime();
+			ingredientList = getBaseList();
+		} else {
+			SearchCancellation.check();
+			matches.andNot(removedIndexes);
+			materializationStart = System.nanoTime();
+			ingredientList = IngredientListView.create(elements, matches);
+		}
+
+		metrics.record(SearchMetrics.Stage.PARSE, parseNanos);
+		metrics.record(SearchMetrics.Stage.INTERSECTION, materializationStart - start - parseNanos - termSearchNanos);
+		metrics.record(SearchMetrics.Stage.MATERIALIZATION, System.nanoTime() - materializationStart);
+		return ingredientList;
 	}
 
-	private ImmutableList<Object> getElements(String filterText) {
-		String[] tokens = filterText.split(" ");
-		TIntSet matches = null;
+	private IngredientListView getBaseList() {
+		if (baseList == null) {
+			if (removedIndexes.isEmpty()) {
+				baseList = IngredientListView.create(elements, elements.size());
+			} else {
+				IntBitmap indexes = new IntBitmap();
+				for (int i = 0; i < elements.size(); i++) {
+					if (!removedIndexes.contains(i)) {
+						indexes.add(i);
+					}
+				}
+				baseList = IngredientListView.create(elements, indexes);
+			}
+		}
+		return baseList;
+	}
 
-		for (String token : tokens) {
+	/**
+	 * Parses one '|' alternative of the filter text into terms.
+	 * A word can start with '-' to exclude its matches, followed by a search prefix like '@' to search a prefixed tree.
+	 * A word with '*' wildcards is a {@link SearchPattern}.
+	 */
+	private List<SearchTerm> getSearchTerms(String filterText) {
+		List<SearchTerm> terms = new ArrayList<SearchTerm>();
+		for (String token : filterText.split(" ")) {
+			boolean negated = false;
+			if (!token.isEmpty() && token.charAt(0) == NEGATION_PREFIX) {
+				negated = true;
+				token = token.substring(1);
+			}
 			if (!token.isEmpty()) {
 				char firstChar = token.charAt(0);
-				GeneralizedSuffixTree tree = this.prefixedSearchTrees.get(firstChar);
-				if (tree != null) {
+				PrefixedSearchTree prefixedTree = this.prefixedSearchTrees.get(firstChar);
+				if (prefixedTree != null) {
 					token = token.substring(1);
-					if (token.isEmpty()) {
-						continue;
+					if (!token.isEmpty()) {
+						addSearchTerm(terms, prefixedTree, token, negated);
 					}
 				} else {
-					tree = searchTree;
+					addSearchTerm(terms, null, token, negated);
 				}
+			}
+		}
+		return terms;
+	}
+
+	/**
+	 * Leaves out words of only wildcards, they match everything.
+	 */
+	private static void addSearchTerm(List<SearchTerm> terms, @Nullable PrefixedSearchTree prefixedTree, String word, boolean negated) {
+		SearchTerm term = new SearchTerm(prefixedTree, word, negated);
+		SearchPattern pattern = term.getPattern();
+		if (pattern == null || pattern.getLiterals().length > 0) {
+			terms.add(term);
+		}
+	}
+
+	/**
+	 * Finds the elements matching every term and none of the negated terms.
+	 * If the terms only narrow down the last query's terms, the search starts from the last query's matches
+	 * and only applies the terms that changed.
+	 * The terms are applied most selective first, so that the matches shrink quickly and the search can stop once they are empty.
+	 * When fuzzy search is enabled, a term without exact matches matches the elements with similar words instead.
+	 */
+	private QueryResult search(List<SearchTerm> terms, @Nullable QueryResult lastQueryResult) {
+		if (terms.isEmpty()) {
+			return new QueryResult(terms, null, false);
+		}
+
+		List<SearchTerm> lastTerms = Collections.emptyList();
+		IntBitmap matches = null;
+		if (lastQueryResult != null && lastQueryResult.isNarrowedBy(terms)) {
+			metrics.increment(SearchMetrics.Counter.NARROWED_QUERIES);
+			lastTerms = lastQueryResult.getTerms();
+			matches = lastQueryResult.getMatches();
+			if (matches != null) {
+				matches = matches.copy();
+			}
+		}
+
+		List<SearchTerm> positiveTerms = new ArrayList<SearchTerm>();
+		List<SearchTerm> negatedTerms = new ArrayList<SearchTerm>();
+		for (int i = 0; i < terms.size(); i++) {
+			SearchTerm term = terms.get(i);
+			if (matches != null && i < lastTerms.size() && term.equals(lastTerms.get(i))) {
+				continue;
+			}
+			if (term.isNegated()) {
+				negatedTerms.add(term);
+			} else {
+				positiveTerms.add(term);
+			}
+		}
+		sortBySelectivity(positiveTerms);
+
+		boolean fuzzy = false;
+		for (SearchTerm term : positiveTerms) {
+			SearchCancellation.check();
+			if (matches != null && matches.isEmpty()) {
+				return new QueryResult(terms, matches, fuzzy);
+			}
 
-				TIntSet searchResults = tree.search(token);
+			if (matches != null && matches.getCardinality() <= MAX_CHECKED_CANDIDATES && !canSearchFuzzy(term)) {
+				matches = getCandidatesContaining(matches, term);
+			} else {
+				IntBitmap searchResults = getSearchResults(term);
+				if (searchResults.isEmpty() && canSearchFuzzy(term)) {
+					if (!lastTerms.isEmpty()) {
+						// fuzzy matches are not a subset of the last matches, so start over
+						return search(terms, null);
+					}
+					searchResults = getFuzzySearchResults(term);
+					fuzzy = true;
+				}
 				if (matches == null) {
-					matches = searchResults;
-				} else if (matches.size() > searchResults.size()) {
-					searchResults.retainAll(matches);
-					matches = searchResults;
+					matches = searchResults.copy();
 				} else {
-					matches.retainAll(searchResults);
+					matches.and(searchResults);
 				}
+			}
+		}
 
-				if (matches.isEmpty()) {
-					break;
+		if (matches == null) {
+			// only negated terms, they exclude from everything
+			matches = new IntBitmap();
+			for (int i = 0; i < elements.size(); i++) {
+				matches.add(i);
+			}
+		}
+
+		for (SearchTerm term : negatedTerms) {
+			SearchCancellation.check();
+			if (matches.isEmpty()) {
+				break;
+			}
+
+			if (matches.getCardinality() <= MAX_CHECKED_CANDIDATES) {
+				matches = getCandidatesContaining(matches, term);
+			} else {
+				matches.andNot(getSearchResults(term));
+			}
+		}
+
+		return new QueryResult(terms, matches, fuzzy);
+	}
+
+	/**
+	 * Sorts the terms by the estimated number of elements they match, fewest first.
+	 * Recently searched terms use their cached count, the others are estimated by their search tree.
+	 */
+	private void sortBySelectivity(List<SearchTerm> terms) {
+		if (terms.size() < 2) {
+			return;
+		}
+		final TObjectIntHashMap<SearchTerm> estimatedCounts = new TObjectIntHashMap<SearchTerm>();
+		for (SearchTerm term : terms) {
+			// asMap() doesn't count this as a hit or miss
+			IntBitmap searchResults = searchResultsCache.asMap().get(term);
+			int estimatedCount = (searchResults != null) ? searchResults.getCardinality() : estimateCount(term);
+			estimatedCounts.put(term, estimatedCount);
+		}
+		Collections.sort(terms, new Comparator<SearchTerm>() {
+			@Override
+			public int compare(SearchTerm term1, SearchTerm term2) {
+				return Ints.compare(estimatedCounts.get(term1), estimatedCounts.get(term2));
+			}
+		});
+	}
+
+	/**
+	 * A pattern matches at most the elements found for its least common literal.
+	 */
+	private int estimateCount(SearchTerm term) {
+		ISearchTree tree = getSearchTree(term);
+		SearchPattern pattern = term.getPattern();
+		if (pattern == null) {
+			return tree.estimateCount(term.getWord());
+		}
+		int estimatedCount = Integer.MAX_VALUE;
+		for (String literal : pattern.getLiterals()) {
+			estimatedCount = Math.min(estimatedCount, tree.estimateCount(literal));
+		}
+		return estimatedCount;
+	}
+
+	private boolean canSearchFuzzy(SearchTerm term) {
+		return fuzzyIndex != null &&
+				!term.isNegated() &&
+				term.getPattern() == null &&
+				term.getPrefixedTree() == null &&
+				TrigramIndex.getMaxEdits(term.getWord().length()) > 0;
+	}
+
+	private IntBitmap getFuzzySearchResults(SearchTerm term) {
+		IntBitmap searchResults = new IntBitmap();
+		if (fuzzyIndex != null) {
+			long start = System.nanoTime();
+			fuzzyIndex.search(term.getWord(), FUZZY_SEARCH_TIME_BUDGET, searchResults);
+			long nanos = System.nanoTime() - start;
+			metrics.record(SearchMetrics.Stage.FUZZY_SEARCH, nanos);
+			termSearchNanos += nanos;
+		}
+		return searchResults;
+	}
+
+	/**
+	 * @return the indexes of all elements matching the term, which must not be modified
+	 */
+	private IntBitmap getSearchResults(SearchTerm term) {
+		IntBitmap searchResults = searchResultsCache.getIfPresent(term);
+		if (searchResults == null) {
+			SearchPattern pattern = term.getPattern();
+			if (pattern != null) {
+				searchResults = getPatternSearchResults(term, pattern);
+			} else {
+				long start = System.nanoTime();
+				searchResults = new IntBitmap();
+				getSearchTree(term).search(term.getWord(), searchResults);
+				long nanos = System.nanoTime() - start;
+				metrics.record(SearchMetrics.Stage.TREE_SEARCH, nanos);
+				termSearchNanos += nanos;
+			}
+			searchResultsCache.put(term, searchResults);
+		} else {
+			metrics.increment(SearchMetrics.Counter.CACHED_TERM_RESULTS);
+		}
+		return searchResults;
+	}
+
+	/**
+	 * Searches the tree for each literal of the pattern, then checks the words of the elements that were found for all of them.
+	 */
+	private IntBitmap getPatternSearchResults(SearchTerm term, SearchPattern pattern) {
+		IntBitmap candidates = null;
+		for (String literal : pattern.getLiterals()) {
+			IntBitmap literalResults = getSearchResults(new SearchTerm(term.getPrefixedTree(), literal, false));
+			if (candidates == null) {
+				candidates = literalResults.copy();
+			} else {
+				candidates.and(literalResults);
+			}
+			if (candidates.isEmpty()) {
+				return candidates;
+			}
+		}
+
+		IntBitmap searchResults = new IntBitmap();
+		if (candidates != null) {
+			TIntIterator iterator = candidates.iterator();
+			for (int checked = 0; iterator.hasNext(); checked++) {
+				if (checked % SearchCancellation.CHECK_INTERVAL == 0) {
+					SearchCancellation.check();
+				}
+				int index = iterator.next();
+				if (matches(elements.get(index), term)) {
+					searchResults.add(index);
 				}
 			}
 		}
+		return searchResults;
+	}
+
+	private ISearchTree getSearchTree(SearchTerm term) {
+		PrefixedSearchTree prefixedTree = term.getPrefixedTree();
+		return (prefixedTree == null) ? searchTree : prefixedTree.getTree();
+	}
+
+	/**
+	 * Checks the search strings of each candidate, finding the same elements as searching the term's tree would.
+	 * For a negated term, keeps the candidates that the tree would not find.
+	 */
+	private IntBitmap getCandidatesContaining(IntBitmap candidates, SearchTerm term) {
+		PrefixedSearchTree prefixedTree = term.getPrefixedTree();
+		if (prefixedTree != null && prefixedTree.getMode() == Config.SearchMode.DISABLED) {
+			return term.isNegated() ? candidates : new IntBitmap();
+		}
 
-		if (matches == null) {
-			return this.baseList;
+		metrics.increment(SearchMetrics.Counter.CANDIDATE_CHECKS);
+		IntBitmap matches = new IntBitmap();
+
+		TIntIterator iterator = candidates.iterator();
+		for (int checked = 0; iterator.hasNext(); checked++) {
+			if (checked % SearchCancellation.CHECK_INTERVAL == 0) {
+				SearchCancellation.check();
+			}
+			int index = iterator.next();
+			if (matches(elements.get(index), term) != term.isNegated()) {
+				matches.add(index);
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * @return true if one of the element's search strings for the term's tree matches the term, ignoring whether it is negated
+	 */
+	private boolean matches(IIngredientListElement element, SearchTerm term) {
+		PrefixedSearchTree prefixedTree = term.getPrefixedTree();
+		Collection<String> strings = (prefixedTree == null) ? getSearchTreeStrings(element) : prefixedTree.getStrings(element);
+		for (String string : strings) {
+			if (term.matches(string)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * A word from the filter text and the tree it is searched in.
+	 */
+	private static class SearchTerm {
+		/**
+		 * The prefixed tree to search, or null for the combined search tree.
+		 */
+		@Nullable
+		private final PrefixedSearchTree prefixedTree;
+		private final String word;
+		/**
+		 * The pattern of a word with wildcards, or null for a plain word.
+		 */
+		@Nullable
+		private final SearchPattern pattern;
+		/**
+		 * True if the term excludes the elements it matches.
+		 */
+		private final boolean negated;
+
+		public SearchTerm(@Nullable PrefixedSearchTree prefixedTree, String word, boolean negated) {
+			this.prefixedTree = prefixedTree;
+			this.word = word;
+			this.pattern = SearchPattern.parse(word);
+			this.negated = negated;
+		}
+
+		@Nullable
+		public PrefixedSearchTree getPrefixedTree() {
+			return prefixedTree;
+		}
+
+		public String getWord() {
+			return word;
+		}
+
+		@Nullable
+		public SearchPattern getPattern() {
+			return pattern;
+		}
+
+		public boolean isNegated() {
+			return negated;
+		}
+
+		/**
+		 * @return true if every element matching the other term also matches this one.
+		 * Changing a negated term's word can exclude fewer elements, so negated terms only narrow themselves.
+		 */
+		public boolean isNarrowedBy(SearchTerm other) {
+			if (prefixedTree != other.prefixedTree || negated != other.negated) {
+				return false;
+			}
+			if (negated) {
+				return word.equals(other.word);
+			} else if (pattern != null) {
+				return other.pattern != null && pattern.isNarrowedBy(other.pattern);
+			} else if (other.pattern != null) {
+				return other.pattern.requires(word);
+			} else {
+				return other.word.contains(word);
+			}
+		}
+
+		/**
+		 * @return true if the string contains the word, or for a pattern, if one of the string's words matches it
+		 */
+		public boolean matches(String string) {
+			return (pattern == null) ? string.contains(word) : pattern.matchesAnyWord(string);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof SearchTerm)) {
+				return false;
+			}
+			SearchTerm other = (SearchTerm) obj;
+			return prefixedTree == other.prefixedTree && word.equals(other.word) && negated == other.negated;
 		}
 
-		int[] matchesList = matches.toArray();
-		Arrays.sort(matchesList);
-		ImmutableList.Builder<Object> matchingElements = ImmutableList.builder();
-		for (Integer match : matchesList) {
-			Object element = baseList.get(match);
-			matchingElements.add(element);
+		@Override
+		public int hashCode() {
+			return 31 * (31 * System.identityHashCode(prefixedTree) + word.hashCode()) + (negated ? 1 : 0);
+		}
+	}
+
+	/**
+	 * The terms of one '|' alternative of a filter and the indexes of the elements matching all of them,
+	 * including removed elements.
+	 */
+	private static class QueryResult {
+		private final List<SearchTerm> terms;
+		/**
+		 * Null when there are no terms and everything matches.
+		 */
+		@Nullable
+		private final IntBitmap matches;
+		/**
+		 * True if a term had no exact matches and used fuzzy matches instead.
+		 */
+		private final boolean fuzzy;
+
+		public QueryResult(List<SearchTerm> terms, @Nullable IntBitmap matches, boolean fuzzy) {
+			this.terms = terms;
+			this.matches = matches;
+			this.fuzzy = fuzzy;
+		}
+
+		public List<SearchTerm> getTerms() {
+			return terms;
+		}
+
+		@Nullable
+		public IntBitmap getMatches() {
+			return matches;
+		}
+
+		/**
+		 * @return true if the new terms can only match a subset of these matches,
+		 * because each of these terms is narrowed by the new term in the same place.
+		 * New terms that were added after these are applied on top of them.
+		 * Fuzzy matches are not narrowed down, they can change completely when a word changes.
+		 */
+		public boolean isNarrowedBy(List<SearchTerm> newTerms) {
+			if (fuzzy || newTerms.size() < terms.size()) {
+				return false;
+			}
+			for (int i = 0; i < terms.size(); i++) {
+				if (!terms.get(i).isNarrowedBy(newTerms.get(i))) {
+					return false;
+				}
+			}
+			return true;
 		}
-		return matchingElements.build();
 	}
 }
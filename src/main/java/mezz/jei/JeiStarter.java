@@ -1,15 +1,18 @@
 package mezz.jei;
 
 import javax.annotation.Nullable;
+import java.io.File;
 import java.util.Iterator;
 import java.util.List;
 
 import mezz.jei.api.IJeiRuntime;
 import mezz.jei.api.IModPlugin;
 import mezz.jei.api.gui.IAdvancedGuiHandler;
+import mezz.jei.config.Config;
 import mezz.jei.gui.ItemListOverlay;
 import mezz.jei.gui.recipes.RecipesGui;
 import mezz.jei.plugins.vanilla.VanillaPlugin;
+import mezz.jei.search.SearchIndexCache;
 import mezz.jei.util.Log;
 import mezz.jei.util.ModRegistry;
 import mezz.jei.util.StackHelper;
@@ -20,6 +23,8 @@ public class JeiStarter {
 	private boolean started;
 	@Nullable
 	private GuiEventHandler guiEventHandler;
+	@Nullable
+	private SearchIndexCache searchIndexCache;
 
 	public void start(List<IModPlugin> plugins, boolean resourceReload) {
 		long jeiStartTime = System.currentTimeMillis();
@@ -30,7 +35,6 @@ public class JeiStarter {
 		registerItemSubtypes(plugins, subtypeRegistry);
 
 		StackHelper stackHelper = new StackHelper(subtypeRegistry);
-		stackHelper.enableUidCache();
 		Internal.setStackHelper(stackHelper);
 
 		IngredientRegistry ingredientRegistry = registerIngredients(plugins);
@@ -50,7 +54,13 @@ public class JeiStarter {
 
 		IngredientInformation.onStart(resourceReload);
 
-		ItemFilter itemFilter = new ItemFilter();
+		if (searchIndexCache == null) {
+			File configurationDir = Config.getJeiConfigurationDir();
+			if (configurationDir != null) {
+				searchIndexCache = new SearchIndexCache(configurationDir);
+			}
+		}
+		ItemFilter itemFilter = new ItemFilter(searchIndexCache);
 
 		Log.info("Building runtime...");
 		start_time = System.currentTimeMillis();
@@ -61,8 +71,6 @@ public class JeiStarter {
 		Internal.setRuntime(jeiRuntime);
 		Log.info("Built    runtime in {} ms", System.currentTimeMillis() - start_time);
 
-		stackHelper.disableUidCache();
-
 		sendRuntime(plugins, jeiRuntime);
 
 		if (guiEventHandler != null) {
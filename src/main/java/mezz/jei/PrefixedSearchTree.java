@@ -0,0 +1,49 @@
+package mezz.jei;
+
+import java.util.Collection;
+
+import mezz.jei.config.Config;
+import mezz.jei.gui.ingredients.IIngredientListElement;
+import mezz.jei.search.ISearchTree;
+
+/**
+ * A search tree for one search prefix, like '@' for mod names.
+ * Knows which strings of an element it indexes and which search mode applies to it.
+ */
+public class PrefixedSearchTree {
+	private final char prefix;
+	private final ISearchTree tree;
+	private final IStringsGetter stringsGetter;
+	private final IModeGetter modeGetter;
+
+	public PrefixedSearchTree(char prefix, ISearchTree tree, IStringsGetter stringsGetter, IModeGetter modeGetter) {
+		this.prefix = prefix;
+		this.tree = tree;
+		this.stringsGetter = stringsGetter;
+		this.modeGetter = modeGetter;
+	}
+
+	public char getPrefix() {
+		return prefix;
+	}
+
+	public ISearchTree getTree() {
+		return tree;
+	}
+
+	public Collection<String> getStrings(IIngredientListElement element) {
+		return stringsGetter.getStrings(element);
+	}
+
+	public Config.SearchMode getMode() {
+		return modeGetter.getMode();
+	}
+
+	public interface IStringsGetter {
+		Collection<String> getStrings(IIngredientListElement element);
+	}
+
+	public interface IModeGetter {
+		Config.SearchMode getMode();
+	}
+}
@@ -15,12 +15,15 @@ import mezz.jei.plugins.jei.JEIInternalPlugin;
 import mezz.jei.plugins.vanilla.VanillaPlugin;
 import mezz.jei.util.AnnotatedInstanceUtil;
 import mezz.jei.util.Log;
+import mezz.jei.util.PluginStatsCommand;
+import mezz.jei.util.SearchStatsCommand;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.network.NetHandlerPlayClient;
 import net.minecraft.client.resources.IReloadableResourceManager;
 import net.minecraft.client.resources.IResourceManager;
 import net.minecraft.client.resources.IResourceManagerReloadListener;
 import net.minecraft.nbt.NBTTagCompound;
+import net.minecraftforge.client.ClientCommandHandler;
 import net.minecraftforge.common.ForgeVersion;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.event.entity.EntityJoinWorldEvent;
@@ -91,6 +94,8 @@ public class ProxyCommonClient extends ProxyCommon {
 	public void init(FMLInitializationEvent event) {
 		KeyBindings.init();
 		MinecraftForge.EVENT_BUS.register(this);
+		ClientCommandHandler.instance.registerCommand(new SearchStatsCommand());
+		ClientCommandHandler.instance.registerCommand(new PluginStatsCommand());
 	}
 
 	@Override
@@ -0,0 +1,200 @@
+package mezz.jei;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableMultimap;
+import mezz.jei.api.ingredients.IIngredientHelper;
+import mezz.jei.api.ingredients.IIngredientRegistry;
+import mezz.jei.api.recipe.IFocus;
+import mezz.jei.api.recipe.IRecipeCategory;
+import mezz.jei.api.recipe.IRecipeWrapper;
+import mezz.jei.util.IngredientUtil;
+
+/**
+ * Remembers the recipe category uids and recipes that JEI's own recipe registry plugin found for the last looked up focuses,
+ * because players look up the same few ingredients over and over.
+ * <p>
+ * Its results only change when recipes are added or removed through the recipe registry,
+ * which invalidates only the lookups that the changed recipes could be part of.
+ * Other mods' plugins can find their results any way they like, so they are not cached and are asked on every lookup.
+ */
+public class RecipeLookupCache {
+	private static final int MAX_SIZE = 500;
+
+	private final IIngredientRegistry ingredientRegistry;
+	private final ImmutableMultimap<String, String> categoriesForCraftItemKeys;
+	private final Cache<Key, Entry> cache = CacheBuilder.newBuilder()
+			.maximumSize(MAX_SIZE)
+			.recordStats()
+			.build();
+
+	public RecipeLookupCache(IIngredientRegistry ingredientRegistry, ImmutableMultimap<String, String> categoriesForCraftItemKeys) {
+		this.ingredientRegistry = ingredientRegistry;
+		this.categoriesForCraftItemKeys = categoriesForCraftItemKeys;
+	}
+
+	@Nullable
+	public <V> List<String> getRecipeCategoryUids(IFocus<V> focus) {
+		Entry entry = cache.getIfPresent(createKey(focus, null));
+		if (entry == null) {
+			return null;
+		}
+		//noinspection unchecked
+		return (List<String>) entry.results;
+	}
+
+	public <V> void putRecipeCategoryUids(IFocus<V> focus, List<String> recipeCategoryUids) {
+		put(focus, null, recipeCategoryUids);
+	}
+
+	@Nullable
+	public <T extends IRecipeWrapper, V> List<T> getRecipeWrappers(IRecipeCategory<T> recipeCategory, IFocus<V> focus) {
+		Entry entry = cache.getIfPresent(createKey(focus, recipeCategory.getUid()));
+		if (entry == null) {
+			return null;
+		}
+		//noinspection unchecked
+		return (List<T>) entry.results;
+	}
+
+	public <T extends IRecipeWrapper, V> void putRecipeWrappers(IRecipeCategory<T> recipeCategory, IFocus<V> focus, List<T> recipeWrappers) {
+		put(focus, recipeCategory.getUid(), recipeWrappers);
+	}
+
+	private <V> void put(IFocus<V> focus, @Nullable String recipeCategoryUid, List<?> results) {
+		V ingredient = focus.getValue();
+		IIngredientHelper<V> ingredientHelper = ingredientRegistry.getIngredientHelper(ingredient);
+		List<String> lookupUids = IngredientUtil.getUniqueIdsWithWildcard(ingredientHelper, ingredient);
+		Key key = new Key(focus.getMode(), lookupUids.get(0), recipeCategoryUid);
+		cache.put(key, new Entry(lookupUids, results));
+	}
+
+	private <V> Key createKey(IFocus<V> focus, @Nullable String recipeCategoryUid) {
+		V ingredient = focus.getValue();
+		IIngredientHelper<V> ingredientHelper = ingredientRegistry.getIngredientHelper(ingredient);
+		return new Key(focus.getMode(), ingredientHelper.getUniqueId(ingredient), recipeCategoryUid);
+	}
+
+	/**
+	 * Invalidates the lookups of the added recipes' ingredients.
+	 * The lookups of their categories' craft items are invalidated too,
+	 * because they list all recipes of the category and the category may have had no recipes before.
+	 */
+	public void invalidateAddedRecipes(Set<String> recipeCategoryUids, Set<String> inputUids, Set<String> outputUids) {
+		Iterator<Map.Entry<Key, Entry>> iterator = cache.asMap().entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<Key, Entry> mapEntry = iterator.next();
+			Key key = mapEntry.getKey();
+			List<String> lookupUids = mapEntry.getValue().lookupUids;
+			if (key.mode == IFocus.Mode.INPUT) {
+				if (containsAny(inputUids, lookupUids) || isCraftItem(lookupUids, recipeCategoryUids, key.recipeCategoryUid)) {
+					iterator.remove();
+				}
+			} else if (containsAny(outputUids, lookupUids)) {
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Invalidates the recipe lookups that found any of the removed recipes,
+	 * and the category lookups that found any of their categories.
+	 * This way the ingredients of the removed recipes don't need to be found.
+	 */
+	public void invalidateRemovedRecipes(Set<String> recipeCategoryUids, Set<IRecipeWrapper> recipeWrappers) {
+		Iterator<Map.Entry<Key, Entry>> iterator = cache.asMap().entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<Key, Entry> mapEntry = iterator.next();
+			Collection<?> results = mapEntry.getValue().results;
+			Set<?> removed = (mapEntry.getKey().recipeCategoryUid == null) ? recipeCategoryUids : recipeWrappers;
+			if (containsAny(removed, results)) {
+				iterator.remove();
+			}
+		}
+	}
+
+	public CacheStats getStats() {
+		return cache.stats();
+	}
+
+	/**
+	 * @param recipeCategoryUid the category of a recipe lookup, or null to check all the changed categories for a category lookup
+	 * @return true if the looked up ingredient is a craft item of a changed category
+	 */
+	private boolean isCraftItem(List<String> lookupUids, Set<String> changedRecipeCategoryUids, @Nullable String recipeCategoryUid) {
+		if (recipeCategoryUid != null && !changedRecipeCategoryUids.contains(recipeCategoryUid)) {
+			return false;
+		}
+		for (String lookupUid : lookupUids) {
+			for (String craftItemCategoryUid : categoriesForCraftItemKeys.get(lookupUid)) {
+				if (recipeCategoryUid == null ? changedRecipeCategoryUids.contains(craftItemCategoryUid) : recipeCategoryUid.equals(craftItemCategoryUid)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static boolean containsAny(Collection<?> collection, Collection<?> values) {
+		for (Object value : values) {
+			if (collection.contains(value)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static class Key {
+		private final IFocus.Mode mode;
+		private final String ingredientUid;
+		/**
+		 * The category of a recipe lookup, null for a category lookup.
+		 */
+		@Nullable
+		private final String recipeCategoryUid;
+
+		public Key(IFocus.Mode mode, String ingredientUid, @Nullable String recipeCategoryUid) {
+			this.mode = mode;
+			this.ingredientUid = ingredientUid;
+			this.recipeCategoryUid = recipeCategoryUid;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return mode == other.mode &&
+					ingredientUid.equals(other.ingredientUid) &&
+					Objects.equal(recipeCategoryUid, other.recipeCategoryUid);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hashCode(mode, ingredientUid, recipeCategoryUid);
+		}
+	}
+
+	private static class Entry {
+		/**
+		 * The uids that the focused ingredient's recipes are found under, with its wildcard uid.
+		 */
+		private final List<String> lookupUids;
+		private final List<?> results;
+
+		public Entry(List<String> lookupUids, List<?> results) {
+			this.lookupUids = lookupUids;
+			this.results = results;
+		}
+	}
+}
@@ -9,8 +9,14 @@ import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
@@ -20,6 +26,7 @@ import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableTable;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import mezz.jei.api.IRecipeRegistry;
 import mezz.jei.api.gui.IRecipeLayoutDrawable;
 import mezz.jei.api.ingredients.IIngredientHelper;
@@ -29,6 +36,8 @@ import mezz.jei.api.recipe.IRecipeCategory;
 import mezz.jei.api.recipe.IRecipeHandler;
 import mezz.jei.api.recipe.IRecipeRegistryPlugin;
 import mezz.jei.api.recipe.IRecipeWrapper;
+import mezz.jei.api.recipe.IThreadSafeRecipeHandler;
+import mezz.jei.api.recipe.RecipeRegistryChangedEvent;
 import mezz.jei.api.recipe.transfer.IRecipeTransferHandler;
 import mezz.jei.config.Config;
 import mezz.jei.config.Constants;
@@ -41,18 +50,25 @@ import mezz.jei.util.Ingredients;
 import mezz.jei.util.Log;
 import mezz.jei.util.RecipeCategoryComparator;
 import mezz.jei.util.RecipeMap;
+import mezz.jei.util.RecipePluginMetrics;
 import net.minecraft.block.Block;
 import net.minecraft.client.gui.inventory.GuiContainer;
 import net.minecraft.inventory.Container;
 import net.minecraft.item.Item;
 import net.minecraft.item.ItemBlock;
 import net.minecraft.item.ItemStack;
+import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.fluids.Fluid;
 import net.minecraftforge.fluids.FluidRegistry;
 import net.minecraftforge.fluids.FluidStack;
 import net.minecraftforge.fml.common.ProgressManager;
 
 public class RecipeRegistry implements IRecipeRegistry {
+	/**
+	 * The ingredients of fewer thread-safe recipes than this are found on the Minecraft thread, starting threads would take longer.
+	 */
+	private static final int MIN_PARALLEL_RECIPES = 1000;
+
 	private final IIngredientRegistry ingredientRegistry;
 	private final ImmutableList<IRecipeHandler> recipeHandlers;
 	private final ImmutableList<IRecipeCategory> recipeCategories;
@@ -67,6 +83,12 @@ public class RecipeRegistry implements IRecipeRegistry {
 	private final RecipeMap recipeOutputMap;
 	private final Set<Class> unhandledRecipeClasses = new HashSet<Class>();
 	private final List<IRecipeRegistryPlugin> plugins = new ArrayList<IRecipeRegistryPlugin>();
+	private final IRecipeRegistryPlugin internalRecipeRegistryPlugin;
+	/**
+	 * Caches the lookups of {@link #internalRecipeRegistryPlugin}, the other plugins are asked on every lookup.
+	 */
+	private final RecipeLookupCache lookupCache;
+	private final RecipePluginMetrics pluginMetrics;
 
 	public RecipeRegistry(
 			List<IRecipeCategory> recipeCategories,
@@ -88,7 +110,7 @@ public class RecipeRegistry implements IRecipeRegistry {
 		this.recipeInputMap = new RecipeMap(recipeCategoryComparator, ingredientRegistry);
 		this.recipeOutputMap = new RecipeMap(recipeCategoryComparator, ingredientRegistry);
 
-		addRecipes(recipes);
+		addRecipeBatch(recipes, true);
 
 		ImmutableListMultimap.Builder<IRecipeCategory, ItemStack> craftItemsForCategoriesBuilder = ImmutableListMultimap.builder();
 		ImmutableMultimap.Builder<String, String> categoriesForCraftItemKeysBuilder = ImmutableMultimap.builder();
@@ -110,10 +132,12 @@ public class RecipeRegistry implements IRecipeRegistry {
 
 		this.craftItemsForCategories = craftItemsForCategoriesBuilder.build();
 		ImmutableMultimap<String, String> categoriesForCraftItemKeys = categoriesForCraftItemKeysBuilder.build();
+		this.lookupCache = new RecipeLookupCache(ingredientRegistry, categoriesForCraftItemKeys);
 
-		IRecipeRegistryPlugin internalRecipeRegistryPlugin = new InternalRecipeRegistryPlugin(this, categoriesForCraftItemKeys, ingredientRegistry, recipeCategoriesMap, recipeInputMap, recipeOutputMap, recipeWrappersForCategories);
+		this.internalRecipeRegistryPlugin = new InternalRecipeRegistryPlugin(this, categoriesForCraftItemKeys, ingredientRegistry, recipeCategoriesMap, recipeInputMap, recipeOutputMap, recipeWrappersForCategories);
 		this.plugins.add(internalRecipeRegistryPlugin);
 		this.plugins.addAll(plugins);
+		this.pluginMetrics = new RecipePluginMetrics(this.plugins);
 
 		ImmutableList.Builder<IRecipeCategory> recipeCategoryBuilder = ImmutableList.builder();
 		for (IRecipeCategory recipeCategory : recipeCategories) {
@@ -163,17 +187,173 @@ public class RecipeRegistry implements IRecipeRegistry {
 		return listBuilder.build();
 	}
 
-	private void addRecipes(@Nullable List<Object> recipes) {
+	/**
+	 * Adds the registered recipes in three stages, so that the ingredients of thread-safe recipes can be found on several threads.
+	 * <p>
+	 * First each recipe is checked and wrapped on the Minecraft thread.
+	 * The ingredients of recipes that don't have an {@link IThreadSafeRecipeHandler} are also found here,
+	 * because their mods may not expect to be called from another thread.
+	 * Then the ingredients of the thread-safe recipes are found, split into parts that each run on their own thread.
+	 * Finally every recipe is added to the recipe maps on the Minecraft thread, in the order they were registered.
+	 * Adding a recipe under uids that were already found only numbers them, so it is not worth doing on other threads.
+	 * Nothing is added until every recipe has been checked and wrapped.
+	 *
+	 * @param showProgress true while the game is starting, to show the progress of wrapping the recipes on the loading screen
+	 * @return the recipes that were added
+	 */
+	private List<PendingRecipe> addRecipeBatch(@Nullable List<?> recipes, boolean showProgress) {
 		if (recipes == null) {
+			return Collections.emptyList();
+		}
+
+		ProgressManager.ProgressBar progressBar = showProgress ? ProgressManager.push("Adding recipes", recipes.size()) : null;
+		List<PendingRecipe> pendingRecipes = new ArrayList<PendingRecipe>(recipes.size());
+		try {
+			for (Object recipe : recipes) {
+				if (progressBar != null) {
+					progressBar.step("");
+				}
+				Preconditions.checkNotNull(recipe, "recipe cannot be null");
+				PendingRecipe pendingRecipe = wrapRecipe(recipe, recipe.getClass());
+				if (pendingRecipe != null) {
+					pendingRecipes.add(pendingRecipe);
+				}
+			}
+		} finally {
+			if (progressBar != null) {
+				ProgressManager.pop(progressBar);
+			}
+		}
+
+		findThreadSafeUniqueIds(pendingRecipes);
+
+		List<PendingRecipe> addedRecipes = new ArrayList<PendingRecipe>(pendingRecipes.size());
+		for (PendingRecipe pendingRecipe : pendingRecipes) {
+			if (pendingRecipe.error != null) {
+				logBrokenRecipe(pendingRecipe.recipe, pendingRecipe.recipeHandler, pendingRecipe.error);
+			} else if (pendingRecipe.inputUids != null && pendingRecipe.outputUids != null) {
+				addedRecipes.add(pendingRecipe);
+				wrapperMap.put(pendingRecipe.recipe, pendingRecipe.recipeWrapper);
+				recipesForCategories.put(pendingRecipe.recipeCategory, pendingRecipe.recipe);
+				recipeWrappersForCategories.put(pendingRecipe.recipeCategory, pendingRecipe.recipeWrapper);
+				recipeInputMap.addRecipe(pendingRecipe.recipeWrapper, pendingRecipe.recipeCategory, pendingRecipe.inputUids);
+				recipeOutputMap.addRecipe(pendingRecipe.recipeWrapper, pendingRecipe.recipeCategory, pendingRecipe.outputUids);
+			}
+		}
+		return addedRecipes;
+	}
+
+	/**
+	 * Checks and wraps a recipe. Finds its ingredients too, unless its handler is thread-safe.
+	 *
+	 * @return null if the recipe can't be added
+	 */
+	@Nullable
+	private <T> PendingRecipe wrapRecipe(T recipe, Class<? extends T> recipeClass) {
+		IRecipeHandler<T> recipeHandler = findRecipeHandler(recipeClass);
+		if (recipeHandler == null) {
+			return null;
+		}
+		IRecipeCategory recipeCategory = getValidRecipeCategory(recipe, recipeHandler);
+		if (recipeCategory == null) {
+			return null;
+		}
+
+		try {
+			IRecipeWrapper recipeWrapper = recipeHandler.getRecipeWrapper(recipe);
+			PendingRecipe pendingRecipe = new PendingRecipe(recipe, recipeHandler, recipeCategory, recipeWrapper);
+			if (!(recipeHandler instanceof IThreadSafeRecipeHandler)) {
+				findUniqueIds(pendingRecipe);
+			}
+			return pendingRecipe;
+		} catch (RuntimeException e) {
+			logBrokenRecipe(recipe, recipeHandler, e);
+		} catch (LinkageError e) {
+			logBrokenRecipe(recipe, recipeHandler, e);
+		}
+		return null;
+	}
+
+	private void findUniqueIds(PendingRecipe pendingRecipe) {
+		Ingredients ingredients = getIngredients(pendingRecipe.recipeWrapper);
+		pendingRecipe.inputUids = recipeInputMap.getUniqueIds(ingredients.getInputIngredients());
+		pendingRecipe.outputUids = recipeOutputMap.getUniqueIds(ingredients.getOutputIngredients());
+	}
+
+	/**
+	 * Finds the ingredients of the recipes with an {@link IThreadSafeRecipeHandler}, on several threads if there are enough of them.
+	 */
+	private void findThreadSafeUniqueIds(List<PendingRecipe> pendingRecipes) {
+		List<PendingRecipe> threadSafeRecipes = new ArrayList<PendingRecipe>();
+		for (PendingRecipe pendingRecipe : pendingRecipes) {
+			if (pendingRecipe.inputUids == null) {
+				threadSafeRecipes.add(pendingRecipe);
+			}
+		}
+
+		int threadCount = Runtime.getRuntime().availableProcessors();
+		if (threadSafeRecipes.size() < MIN_PARALLEL_RECIPES || threadCount < 2) {
+			findUniqueIds(threadSafeRecipes);
 			return;
 		}
 
-		ProgressManager.ProgressBar progressBar = ProgressManager.push("Adding recipes", recipes.size());
-		for (Object recipe : recipes) {
-			progressBar.step("");
-			addRecipe(recipe);
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(threadCount);
+		int partSize = (threadSafeRecipes.size() + threadCount - 1) / threadCount;
+		for (int start = 0; start < threadSafeRecipes.size(); start += partSize) {
+			final List<PendingRecipe> part = threadSafeRecipes.subList(start, Math.min(start + partSize, threadSafeRecipes.size()));
+			tasks.add(new Callable<Void>() {
+				@Override
+				@Nullable
+				public Void call() {
+					findUniqueIds(part);
+					return null;
+				}
+			});
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(
+				tasks.size(),
+				new ThreadFactoryBuilder()
+						.setNameFormat("JEI Recipe Registry Builder %d")
+						.setDaemon(true)
+						.build()
+		);
+		try {
+			for (Future<Void> future : executor.invokeAll(tasks)) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while finding the ingredients of recipes.", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Failed to find the ingredients of recipes.", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Recipes whose ingredients can't be found get the error, to be logged on the Minecraft thread.
+	 */
+	private void findUniqueIds(List<PendingRecipe> pendingRecipes) {
+		for (PendingRecipe pendingRecipe : pendingRecipes) {
+			try {
+				findUniqueIds(pendingRecipe);
+			} catch (RuntimeException e) {
+				pendingRecipe.error = e;
+			} catch (LinkageError e) {
+				pendingRecipe.error = e;
+			}
+		}
+	}
+
+	private static <T> void logBrokenRecipe(T recipe, IRecipeHandler<T> recipeHandler, Throwable e) {
+		if (e instanceof BrokenCraftingRecipeException) {
+			Log.error("Found a broken crafting recipe.", e);
+		} else {
+			String recipeInfo = ErrorUtil.getInfoFromRecipe(recipe, recipeHandler);
+			Log.error("Found a broken recipe: {}\n", recipeInfo, e);
 		}
-		ProgressManager.pop(progressBar);
 	}
 
 	@Override
@@ -188,10 +368,69 @@ public class RecipeRegistry implements IRecipeRegistry {
 	public void addRecipe(@Nullable Object recipe) {
 		Preconditions.checkNotNull(recipe, "recipe cannot be null");
 
-		addRecipe(recipe, recipe.getClass());
+		if (addRecipe(recipe, recipe.getClass())) {
+			postRecipeRegistryChangedEvent(Collections.singletonList(recipe), Collections.emptyList());
+		}
 	}
 
-	private <T> void addRecipe(T recipe, Class<? extends T> recipeClass) {
+	/**
+	 * @return true if the recipe was added
+	 */
+	private <T> boolean addRecipe(T recipe, Class<? extends T> recipeClass) {
+		IRecipeHandler<T> recipeHandler = findRecipeHandler(recipeClass);
+		if (recipeHandler == null) {
+			return false;
+		}
+		IRecipeCategory recipeCategory = getValidRecipeCategory(recipe, recipeHandler);
+		if (recipeCategory == null) {
+			return false;
+		}
+
+		try {
+			addRecipeUnchecked(recipe, recipeCategory, recipeHandler);
+			return true;
+		} catch (BrokenCraftingRecipeException e) {
+			Log.error("Found a broken crafting recipe.", e);
+		} catch (RuntimeException e) {
+			String recipeInfo = ErrorUtil.getInfoFromRecipe(recipe, recipeHandler);
+			Log.error("Found a broken recipe: {}\n", recipeInfo, e);
+		} catch (LinkageError e) {
+			String recipeInfo = ErrorUtil.getInfoFromRecipe(recipe, recipeHandler);
+			Log.error("Found a broken recipe: {}\n", recipeInfo, e);
+		}
+		return false;
+	}
+
+	@Override
+	public void addRecipes(@Nullable List<?> recipes) {
+		Preconditions.checkNotNull(recipes, "recipes cannot be null");
+
+		List<PendingRecipe> addedPendingRecipes = addRecipeBatch(recipes, false);
+		if (addedPendingRecipes.isEmpty()) {
+			return;
+		}
+
+		List<Object> addedRecipes = new ArrayList<Object>(addedPendingRecipes.size());
+		Set<String> recipeCategoryUids = new HashSet<String>();
+		Set<String> inputUids = new HashSet<String>();
+		Set<String> outputUids = new HashSet<String>();
+		for (PendingRecipe pendingRecipe : addedPendingRecipes) {
+			addedRecipes.add(pendingRecipe.recipe);
+			recipeCategoryUids.add(pendingRecipe.recipeCategory.getUid());
+			if (pendingRecipe.inputUids != null) {
+				inputUids.addAll(pendingRecipe.inputUids);
+			}
+			if (pendingRecipe.outputUids != null) {
+				outputUids.addAll(pendingRecipe.outputUids);
+			}
+		}
+		lookupCache.invalidateAddedRecipes(recipeCategoryUids, inputUids, outputUids);
+
+		postRecipeRegistryChangedEvent(addedRecipes, Collections.emptyList());
+	}
+
+	@Nullable
+	private <T> IRecipeHandler<T> findRecipeHandler(Class<? extends T> recipeClass) {
 		IRecipeHandler<T> recipeHandler = getRecipeHandler(recipeClass);
 		if (recipeHandler == null) {
 			if (!unhandledRecipeClasses.contains(recipeClass)) {
@@ -200,40 +439,32 @@ public class RecipeRegistry implements IRecipeRegistry {
 					Log.debug("Can't handle recipe: {}", recipeClass);
 				}
 			}
-			return;
 		}
+		return recipeHandler;
+	}
 
-		String recipeCategoryUid = recipeHandler.getRecipeCategoryUid(recipe);
-
-		IRecipeCategory recipeCategory = recipeCategoriesMap.get(recipeCategoryUid);
+	/**
+	 * @return the recipe's category, or null if it has no registered category or it is not valid
+	 */
+	@Nullable
+	private <T> IRecipeCategory getValidRecipeCategory(T recipe, IRecipeHandler<T> recipeHandler) {
+		IRecipeCategory recipeCategory = findRecipeCategory(recipe, recipeHandler);
 		if (recipeCategory == null) {
-			Log.error("No recipe category registered for recipeCategoryUid: {}", recipeCategoryUid);
-			return;
+			return null;
 		}
 
 		try {
 			if (!recipeHandler.isRecipeValid(recipe)) {
-				return;
+				return null;
 			}
 		} catch (RuntimeException e) {
 			Log.error("Recipe check crashed", e);
-			return;
+			return null;
 		} catch (LinkageError e) {
 			Log.error("Recipe check crashed", e);
-			return;
-		}
-
-		try {
-			addRecipeUnchecked(recipe, recipeCategory, recipeHandler);
-		} catch (BrokenCraftingRecipeException e) {
-			Log.error("Found a broken crafting recipe.", e);
-		} catch (RuntimeException e) {
-			String recipeInfo = ErrorUtil.getInfoFromRecipe(recipe, recipeHandler);
-			Log.error("Found a broken recipe: {}\n", recipeInfo, e);
-		} catch (LinkageError e) {
-			String recipeInfo = ErrorUtil.getInfoFromRecipe(recipe, recipeHandler);
-			Log.error("Found a broken recipe: {}\n", recipeInfo, e);
+			return null;
 		}
+		return recipeCategory;
 	}
 
 	private <T> void addRecipeUnchecked(T recipe, IRecipeCategory recipeCategory, IRecipeHandler<T> recipeHandler) {
@@ -241,12 +472,16 @@ public class RecipeRegistry implements IRecipeRegistry {
 		wrapperMap.put(recipe, recipeWrapper);
 
 		Ingredients ingredients = getIngredients(recipeWrapper);
+		List<String> inputUids = recipeInputMap.getUniqueIds(ingredients.getInputIngredients());
+		List<String> outputUids = recipeOutputMap.getUniqueIds(ingredients.getOutputIngredients());
 
-		recipeInputMap.addRecipe(recipeWrapper, recipeCategory, ingredients.getInputIngredients());
-		recipeOutputMap.addRecipe(recipeWrapper, recipeCategory, ingredients.getOutputIngredients());
+		recipeInputMap.addRecipe(recipeWrapper, recipeCategory, inputUids);
+		recipeOutputMap.addRecipe(recipeWrapper, recipeCategory, outputUids);
 
 		recipesForCategories.put(recipeCategory, recipe);
 		recipeWrappersForCategories.put(recipeCategory, recipeWrapper);
+
+		lookupCache.invalidateAddedRecipes(Collections.singleton(recipeCategory.getUid()), new HashSet<String>(inputUids), new HashSet<String>(outputUids));
 	}
 
 	public Ingredients getIngredients(IRecipeWrapper recipeWrapper) {
@@ -259,31 +494,26 @@ public class RecipeRegistry implements IRecipeRegistry {
 	public void removeRecipe(Object recipe) {
 		Preconditions.checkNotNull(recipe, "Null recipe");
 
-		removeRecipe(recipe, recipe.getClass());
+		if (removeRecipe(recipe, recipe.getClass())) {
+			postRecipeRegistryChangedEvent(Collections.emptyList(), Collections.singletonList(recipe));
+		}
 	}
 
-	private <T> void removeRecipe(T recipe, Class<? extends T> recipeClass) {
-		IRecipeHandler<T> recipeHandler = getRecipeHandler(recipeClass);
+	/**
+	 * @return true if the recipe was removed
+	 */
+	private <T> boolean removeRecipe(T recipe, Class<? extends T> recipeClass) {
+		IRecipeHandler<T> recipeHandler = findRecipeHandler(recipeClass);
 		if (recipeHandler == null) {
-			if (!unhandledRecipeClasses.contains(recipeClass)) {
-				unhandledRecipeClasses.add(recipeClass);
-				if (Config.isDebugModeEnabled()) {
-					Log.debug("Can't handle recipe: {}", recipeClass);
-				}
-			}
-			return;
+			return false;
 		}
-
-		String recipeCategoryUid = recipeHandler.getRecipeCategoryUid(recipe);
-
-		IRecipeCategory recipeCategory = recipeCategoriesMap.get(recipeCategoryUid);
+		IRecipeCategory recipeCategory = findRecipeCategory(recipe, recipeHandler);
 		if (recipeCategory == null) {
-			Log.error("No recipe category registered for recipeCategoryUid: {}", recipeCategoryUid);
-			return;
+			return false;
 		}
 
 		try {
-			removeRecipeUnchecked(recipe, recipeCategory);
+			return removeRecipeUnchecked(recipe, recipeCategory);
 		} catch (BrokenCraftingRecipeException e) {
 			Log.error("Found a broken crafting recipe.", e);
 		} catch (RuntimeException e) {
@@ -293,19 +523,113 @@ public class RecipeRegistry implements IRecipeRegistry {
 			String recipeInfo = ErrorUtil.getInfoFromRecipe(recipe, recipeHandler);
 			Log.error("Found a broken recipe: {}\n", recipeInfo, e);
 		}
+		return false;
 	}
 
-	private <T> void removeRecipeUnchecked(T recipe, IRecipeCategory recipeCategory) {
+	private <T> boolean removeRecipeUnchecked(T recipe, IRecipeCategory recipeCategory) {
 		IRecipeWrapper recipeWrapper = wrapperMap.remove(recipe);
-		if (recipeWrapper != null) {
-			Ingredients ingredients = getIngredients(recipeWrapper);
+		if (recipeWrapper == null) {
+			return false;
+		}
+
+		Ingredients ingredients = getIngredients(recipeWrapper);
+
+		recipeInputMap.removeRecipe(recipeWrapper, recipeCategory, ingredients.getInputIngredients());
+		recipeOutputMap.removeRecipe(recipeWrapper, recipeCategory, ingredients.getOutputIngredients());
+
+		recipesForCategories.remove(recipeCategory, recipe);
+		recipeWrappersForCategories.remove(recipeCategory, recipeWrapper);
+
+		lookupCache.invalidateRemovedRecipes(Collections.singleton(recipeCategory.getUid()), Collections.singleton(recipeWrapper));
+		return true;
+	}
+
+	/**
+	 * Removes the recipes from the recipe maps all at once, without finding the ingredients of each recipe,
+	 * and from each of their categories' lists in one pass.
+	 * The categories of all the recipes are found first, so that nothing is removed if the list contains null.
+	 */
+	@Override
+	public void removeRecipes(@Nullable List<?> recipes) {
+		Preconditions.checkNotNull(recipes, "recipes cannot be null");
+		for (Object recipe : recipes) {
+			Preconditions.checkNotNull(recipe, "Null recipe");
+		}
+
+		List<Object> removedRecipes = new ArrayList<Object>();
+		Set<Object> removedRecipeSet = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+		Set<IRecipeWrapper> removedRecipeWrappers = Collections.newSetFromMap(new IdentityHashMap<IRecipeWrapper, Boolean>());
+		Set<IRecipeCategory> recipeCategories = new HashSet<IRecipeCategory>();
+		for (Object recipe : recipes) {
+			IRecipeWrapper recipeWrapper = wrapperMap.get(recipe);
+			if (recipeWrapper != null && !removedRecipeSet.contains(recipe)) {
+				IRecipeCategory recipeCategory = findRemovedRecipeCategory(recipe, recipe.getClass());
+				if (recipeCategory != null) {
+					removedRecipes.add(recipe);
+					removedRecipeSet.add(recipe);
+					removedRecipeWrappers.add(recipeWrapper);
+					recipeCategories.add(recipeCategory);
+				}
+			}
+		}
+
+		if (removedRecipes.isEmpty()) {
+			return;
+		}
 
-			recipeInputMap.removeRecipe(recipeWrapper, recipeCategory, ingredients.getInputIngredients());
-			recipeOutputMap.removeRecipe(recipeWrapper, recipeCategory, ingredients.getOutputIngredients());
+		for (Object recipe : removedRecipes) {
+			wrapperMap.remove(recipe);
+		}
+		recipeInputMap.removeRecipes(removedRecipeWrappers);
+		recipeOutputMap.removeRecipes(removedRecipeWrappers);
 
-			recipesForCategories.remove(recipeCategory, recipe);
-			recipeWrappersForCategories.remove(recipeCategory, recipeWrapper);
+		Set<String> recipeCategoryUids = new HashSet<String>();
+		for (IRecipeCategory recipeCategory : recipeCategories) {
+			recipesForCategories.get(recipeCategory).removeAll(removedRecipeSet);
+			recipeWrappersForCategories.get(recipeCategory).removeAll(removedRecipeWrappers);
+			recipeCategoryUids.add(recipeCategory.getUid());
 		}
+		lookupCache.invalidateRemovedRecipes(recipeCategoryUids, removedRecipeWrappers);
+
+		postRecipeRegistryChangedEvent(Collections.emptyList(), removedRecipes);
+	}
+
+	/**
+	 * @return the category of a recipe that is being removed, or null if it has none or its handler crashed
+	 */
+	@Nullable
+	private <T> IRecipeCategory findRemovedRecipeCategory(T recipe, Class<? extends T> recipeClass) {
+		IRecipeHandler<T> recipeHandler = findRecipeHandler(recipeClass);
+		if (recipeHandler == null) {
+			return null;
+		}
+
+		try {
+			return findRecipeCategory(recipe, recipeHandler);
+		} catch (RuntimeException e) {
+			logBrokenRecipe(recipe, recipeHandler, e);
+		} catch (LinkageError e) {
+			logBrokenRecipe(recipe, recipeHandler, e);
+		}
+		return null;
+	}
+
+	/**
+	 * @return the recipe's category, or null if it has no registered category
+	 */
+	@Nullable
+	private <T> IRecipeCategory findRecipeCategory(T recipe, IRecipeHandler<T> recipeHandler) {
+		String recipeCategoryUid = recipeHandler.getRecipeCategoryUid(recipe);
+
+		IRecipeCategory recipeCategory = recipeCategoriesMap.get(recipeCategoryUid);
+		if (recipeCategory == null) {
+			Log.error("No recipe category registered for recipeCategoryUid: {}", recipeCategoryUid);
+		}
+		return recipeCategory;
+	}
+
+	private static void postRecipeRegistryChangedEvent(List<Object> addedRecipes, List<Object> removedRecipes) {
+		MinecraftForge.EVENT_BUS.post(new RecipeRegistryChangedEvent(addedRecipes, removedRecipes));
 	}
 
 	@Override
@@ -399,18 +723,34 @@ public class RecipeRegistry implements IRecipeRegistry {
 
 		List<String> allRecipeCategoryUids = new ArrayList<String>();
 		for (IRecipeRegistryPlugin plugin : this.plugins) {
-			long start_time = System.currentTimeMillis();
-			List<String> recipeCategoryUids = plugin.getRecipeCategoryUids(focus);
-			long timeElapsed = System.currentTimeMillis() - start_time;
-			if (timeElapsed > 10) {
-				Log.warning("Recipe Category lookup is slow: {} ms. {}", timeElapsed, plugin.getClass());
-			}
-			allRecipeCategoryUids.addAll(recipeCategoryUids);
+			allRecipeCategoryUids.addAll(getRecipeCategoryUids(plugin, focus));
 		}
 
 		return getRecipeCategories(allRecipeCategoryUids);
 	}
 
+	/**
+	 * The results of the internal plugin are cached, see {@link RecipeLookupCache}.
+	 */
+	private <V> List<String> getRecipeCategoryUids(IRecipeRegistryPlugin plugin, IFocus<V> focus) {
+		boolean cached = (plugin == internalRecipeRegistryPlugin);
+		if (cached) {
+			List<String> cachedRecipeCategoryUids = lookupCache.getRecipeCategoryUids(focus);
+			if (cachedRecipeCategoryUids != null) {
+				return cachedRecipeCategoryUids;
+			}
+		}
+
+		long startTime = System.nanoTime();
+		List<String> recipeCategoryUids = plugin.getRecipeCategoryUids(focus);
+		pluginMetrics.record(plugin, RecipePluginMetrics.Method.RECIPE_CATEGORY_UIDS, System.nanoTime() - startTime, recipeCategoryUids.size());
+
+		if (cached) {
+			lookupCache.putRecipeCategoryUids(focus, recipeCategoryUids);
+		}
+		return recipeCategoryUids;
+	}
+
 	@Override
 	public <T extends IRecipeWrapper, V> List<T> getRecipeWrappers(@Nullable IRecipeCategory<T> recipeCategory, @Nullable IFocus<V> focus) {
 		Preconditions.checkNotNull(recipeCategory, "recipeCategory cannot be null");
@@ -423,30 +763,54 @@ public class RecipeRegistry implements IRecipeRegistry {
 
 		List<T> allRecipeWrappers = new ArrayList<T>();
 		for (IRecipeRegistryPlugin plugin : this.plugins) {
-			long start_time = System.currentTimeMillis();
-			List<T> recipeWrappers = plugin.getRecipeWrappers(recipeCategory, focus);
-			long timeElapsed = System.currentTimeMillis() - start_time;
-			if (timeElapsed > 10) {
-				Log.warning("Recipe Wrapper lookup is slow: {} ms. {}", timeElapsed, plugin.getClass());
-			}
-			allRecipeWrappers.addAll(recipeWrappers);
+			allRecipeWrappers.addAll(getRecipeWrappers(plugin, recipeCategory, focus));
 		}
 
 		return allRecipeWrappers;
 	}
 
+	/**
+	 * The results of the internal plugin are cached, see {@link RecipeLookupCache}.
+	 */
+	private <T extends IRecipeWrapper, V> List<T> getRecipeWrappers(IRecipeRegistryPlugin plugin, IRecipeCategory<T> recipeCategory, IFocus<V> focus) {
+		boolean cached = (plugin == internalRecipeRegistryPlugin);
+		if (cached) {
+			List<T> cachedRecipeWrappers = lookupCache.getRecipeWrappers(recipeCategory, focus);
+			if (cachedRecipeWrappers != null) {
+				return cachedRecipeWrappers;
+			}
+		}
+
+		long startTime = System.nanoTime();
+		List<T> recipeWrappers = plugin.getRecipeWrappers(recipeCategory, focus);
+		pluginMetrics.record(plugin, RecipePluginMetrics.Method.RECIPE_WRAPPERS_WITH_FOCUS, System.nanoTime() - startTime, recipeWrappers.size());
+
+		if (cached) {
+			lookupCache.putRecipeWrappers(recipeCategory, focus, recipeWrappers);
+		}
+		return recipeWrappers;
+	}
+
+	public RecipePluginMetrics getPluginMetrics() {
+		return pluginMetrics;
+	}
+
+	/**
+	 * Hits and misses of the internal plugin's cached recipe category and recipe lookups by focus.
+	 */
+	public CacheStats getLookupCacheStats() {
+		return lookupCache.getStats();
+	}
+
 	@Override
 	public <T extends IRecipeWrapper> List<T> getRecipeWrappers(@Nullable IRecipeCategory<T> recipeCategory) {
 		Preconditions.checkNotNull(recipeCategory, "recipeCategory cannot be null");
 
 		List<T> allRecipeWrappers = new ArrayList<T>();
 		for (IRecipeRegistryPlugin plugin : this.plugins) {
-			long start_time = System.currentTimeMillis();
+			long startTime = System.nanoTime();
 			List<T> recipeWrappers = plugin.getRecipeWrappers(recipeCategory);
-			long timeElapsed = System.currentTimeMillis() - start_time;
-			if (timeElapsed > 10) {
-				Log.warning("Recipe Wrapper lookup is slow: {} ms. {}", timeElapsed, plugin.getClass());
-			}
+			pluginMetrics.record(plugin, RecipePluginMetrics.Method.RECIPE_WRAPPERS, System.nanoTime() - startTime, recipeWrappers.size());
 			allRecipeWrappers.addAll(recipeWrappers);
 		}
 
@@ -489,4 +853,30 @@ public class RecipeRegistry implements IRecipeRegistry {
 	public <T extends IRecipeWrapper> IRecipeLayoutDrawable createRecipeLayoutDrawable(IRecipeCategory<T> recipeCategory, T recipeWrapper, IFocus focus) {
 		return new RecipeLayout(-1, recipeCategory, recipeWrapper, focus, 0, 0);
 	}
+
+	/**
+	 * A recipe that was checked and is being added by {@link #addRecipeBatch(List, boolean)}.
+	 */
+	private static class PendingRecipe {
+		private final Object recipe;
+		private final IRecipeHandler recipeHandler;
+		private final IRecipeCategory recipeCategory;
+		private final IRecipeWrapper recipeWrapper;
+		@Nullable
+		private List<String> inputUids;
+		@Nullable
+		private List<String> outputUids;
+		/**
+		 * The crash from finding the ingredients on another thread.
+		 */
+		@Nullable
+		private Throwable error;
+
+		public PendingRecipe(Object recipe, IRecipeHandler recipeHandler, IRecipeCategory recipeCategory, IRecipeWrapper recipeWrapper) {
+			this.recipe = recipe;
+			this.recipeHandler = recipeHandler;
+			this.recipeCategory = recipeCategory;
+			this.recipeWrapper = recipeWrapper;
+		}
+	}
 }
@@ -57,9 +57,18 @@ public interface IIngredientRegistry {
 	/**
 	 * Add new ingredients to JEI at runtime.
 	 * Used by mods that have items created while the game is running, or use the server to define items.
-	 * Using this method will reload the ingredient list, do not call it unless necessary.
+	 * The new ingredients are added to the end of the ingredient list without reloading it.
 	 *
 	 * @since JEI 4.0.2
 	 */
 	<V> void addIngredientsAtRuntime(Class<V> ingredientClass, List<V> ingredients);
+
+	/**
+	 * Remove ingredients from JEI at runtime.
+	 * Ingredients are matched using {@link IIngredientHelper#getUniqueId(Object)}.
+	 * Used by mods that have items removed while the game is running, or use the server to define items.
+	 *
+	 * @since JEI 4.3.0
+	 */
+	<V> void removeIngredientsAtRuntime(Class<V> ingredientClass, List<V> ingredients);
 }
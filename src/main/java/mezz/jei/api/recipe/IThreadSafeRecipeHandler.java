@@ -0,0 +1,21 @@
+package mezz.jei.api.recipe;
+
+import mezz.jei.api.ingredients.IIngredients;
+
+/**
+ * A recipe handler whose recipe wrappers can be asked for their ingredients from any thread.
+ * <p>
+ * While JEI is starting, it gets the ingredients of these recipes on several threads at once,
+ * which makes starting much faster for mods with many recipes.
+ * Only implement this instead of {@link IRecipeHandler} if {@link IRecipeWrapper#getIngredients(IIngredients)}
+ * and the ingredient helpers of its ingredients don't change anything shared and don't need the Minecraft thread.
+ * Recipes are still checked and wrapped on the Minecraft thread.
+ * <p>
+ * Finding the uids of item stacks calls the subtype interpreters of other mods,
+ * and expanding wildcard stacks calls {@link net.minecraft.item.Item#getSubItems}, so this is usually not safe for recipes with item stacks.
+ *
+ * @since JEI 4.3.0
+ */
+public interface IThreadSafeRecipeHandler<T> extends IRecipeHandler<T> {
+
+}
@@ -0,0 +1,31 @@
+package mezz.jei.api.recipe;
+
+import java.util.List;
+
+import mezz.jei.api.IRecipeRegistry;
+import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.fml.common.eventhandler.Event;
+
+/**
+ * Posted on the {@link MinecraftForge#EVENT_BUS} after recipes are added to or removed from the recipe registry while the game is running.
+ * A whole batch from {@link IRecipeRegistry#addRecipes(List)} or {@link IRecipeRegistry#removeRecipes(List)} posts only one event.
+ *
+ * @since JEI 4.3.0
+ */
+public class RecipeRegistryChangedEvent extends Event {
+	private final List<Object> addedRecipes;
+	private final List<Object> removedRecipes;
+
+	public RecipeRegistryChangedEvent(List<Object> addedRecipes, List<Object> removedRecipes) {
+		this.addedRecipes = addedRecipes;
+		this.removedRecipes = removedRecipes;
+	}
+
+	public List<Object> getAddedRecipes() {
+		return addedRecipes;
+	}
+
+	public List<Object> getRemovedRecipes() {
+		return removedRecipes;
+	}
+}
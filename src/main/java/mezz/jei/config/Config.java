@@ -40,12 +40,17 @@ public class Config {
 	private static LocalizedConfiguration itemBlacklistConfig;
 	@Nullable
 	private static LocalizedConfiguration searchColorsConfig;
+	@Nullable
+	private static File jeiConfigurationDir;
 
 	// advanced
 	private static boolean debugModeEnabled = false;
 	private static boolean centerSearchBarEnabled = false;
 	private static final String defaultModNameFormatFriendly = "blue italic";
 	private static String modNameFormat = parseFriendlyModNameFormat(defaultModNameFormatFriendly);
+	private static final SearchIndexType defaultSearchIndexType = SearchIndexType.SUFFIX_TREE;
+	private static SearchIndexType searchIndexType = defaultSearchIndexType;
+	private static boolean searchIndexTypeLoaded = false;
 
 	// search
 	private static final SearchMode defaultModNameSearchMode = SearchMode.REQUIRE_PREFIX;
@@ -60,6 +65,9 @@ public class Config {
 	private static SearchMode creativeTabSearchMode = defaultCreativeTabSearchMode;
 	private static SearchMode colorSearchMode = defaultColorSearchMode;
 
+	private static final boolean defaultFuzzySearchEnabled = false;
+	private static boolean fuzzySearchEnabled = defaultFuzzySearchEnabled;
+
 	// per-world
 	private static final boolean defaultOverlayEnabled = true;
 	private static final boolean defaultCheatItemsEnabled = false;
@@ -167,10 +175,22 @@ public class Config {
 		return colorSearchMode;
 	}
 
+	public static boolean isFuzzySearchEnabled() {
+		return fuzzySearchEnabled;
+	}
+
 	public enum SearchMode {
 		ENABLED, REQUIRE_PREFIX, DISABLED
 	}
 
+	public static SearchIndexType getSearchIndexType() {
+		return searchIndexType;
+	}
+
+	public enum SearchIndexType {
+		SUFFIX_TREE, SUFFIX_ARRAY
+	}
+
 	public static boolean setFilterText(String filterText) {
 		String lowercaseFilterText = filterText.toLowerCase();
 		if (Config.filterText.equals(lowercaseFilterText)) {
@@ -207,6 +227,11 @@ public class Config {
 		return worldConfig;
 	}
 
+	@Nullable
+	public static File getJeiConfigurationDir() {
+		return jeiConfigurationDir;
+	}
+
 	public static void preInit(FMLPreInitializationEvent event) {
 
 		File jeiConfigurationDir = new File(event.getModConfigurationDirectory(), Constants.MOD_ID);
@@ -222,6 +247,8 @@ public class Config {
 			}
 		}
 
+		Config.jeiConfigurationDir = jeiConfigurationDir;
+
 		final File configFile = new File(jeiConfigurationDir, "jei.cfg");
 		final File itemBlacklistConfigFile = new File(jeiConfigurationDir, "itemBlacklist.cfg");
 		final File searchColorsConfigFile = new File(jeiConfigurationDir, "searchColors.cfg");
@@ -321,6 +348,7 @@ public class Config {
 		oreDictSearchMode = config.getEnum("oreDictSearchMode", CATEGORY_SEARCH, defaultOreDictSearchMode, searchModes);
 		creativeTabSearchMode = config.getEnum("creativeTabSearchMode", CATEGORY_SEARCH, defaultCreativeTabSearchMode, searchModes);
 		colorSearchMode = config.getEnum("colorSearchMode", CATEGORY_SEARCH, defaultColorSearchMode, searchModes);
+		fuzzySearchEnabled = config.getBoolean(CATEGORY_SEARCH, "fuzzySearchEnabled", defaultFuzzySearchEnabled);
 		if (config.getCategory(CATEGORY_SEARCH).hasChanged()) {
 			needsReload = true;
 		}
@@ -352,6 +380,14 @@ public class Config {
 			property.setShowInGui(false);
 		}
 
+		SearchIndexType loadedSearchIndexType = config.getEnum("searchIndexType", CATEGORY_ADVANCED, defaultSearchIndexType, SearchIndexType.values());
+		// the first load only sets the index type, it has not been built with another one yet
+		if (searchIndexTypeLoaded && loadedSearchIndexType != searchIndexType) {
+			needsReload = true;
+		}
+		searchIndexType = loadedSearchIndexType;
+		searchIndexTypeLoaded = true;
+
 		final boolean configChanged = config.hasChanged();
 		if (configChanged) {
 			config.save();
@@ -8,6 +8,7 @@ import java.util.Set;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import mezz.jei.IItemFilterListener;
 import mezz.jei.ItemFilter;
 import mezz.jei.api.IItemListOverlay;
 import mezz.jei.api.gui.IAdvancedGuiHandler;
@@ -29,6 +30,23 @@ public class ItemListOverlay implements IItemListOverlay {
 		this.itemFilter = itemFilter;
 		this.advancedGuiHandlers = advancedGuiHandlers;
 		this.ingredientRegistry = ingredientRegistry;
+
+		this.itemFilter.addListener(new IItemFilterListener() {
+			@Override
+			public void onItemFilterRebuilt() {
+				ItemListOverlayInternal.setToFirstPage();
+				if (internal != null) {
+					internal.updateLayout();
+				}
+			}
+
+			@Override
+			public void onIngredientListUpdated() {
+				if (internal != null) {
+					internal.updateLayout();
+				}
+			}
+		});
 	}
 
 	@Nullable
@@ -74,10 +92,23 @@ public class ItemListOverlay implements IItemListOverlay {
 		}
 	}
 
+	/**
+	 * Rebuilds the item filter in the background, the item list is updated when it is done.
+	 */
 	public void rebuildItemFilter() {
 		ItemFilter itemFilter = getItemFilter();
 		itemFilter.rebuild();
-		ItemListOverlayInternal.setToFirstPage();
+	}
+
+	public <V> void addIngredients(Class<V> ingredientClass, List<V> ingredients) {
+		itemFilter.addIngredients(ingredientClass, ingredients);
+		if (internal != null) {
+			internal.updateLayout();
+		}
+	}
+
+	public <V> void removeIngredients(Class<V> ingredientClass, List<V> ingredients) {
+		itemFilter.removeIngredients(ingredientClass, ingredients);
 		if (internal != null) {
 			internal.updateLayout();
 		}
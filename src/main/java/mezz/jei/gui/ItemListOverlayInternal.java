@@ -231,7 +231,7 @@ public class ItemListOverlayInternal implements IShowsRecipeFocuses, IMouseHandl
 	}
 
 	public void updateLayout() {
-		ImmutableList<Object> ingredientList = parent.getItemFilter().getIngredientList();
+		List<Object> ingredientList = parent.getItemFilter().getIngredientList();
 		guiIngredientList.set(firstItemIndex, ingredientList);
 
 		FontRenderer fontRendererObj = Minecraft.getMinecraft().fontRendererObj;
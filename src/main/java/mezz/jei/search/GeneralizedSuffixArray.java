@@ -0,0 +1,410 @@
+package mezz.jei.search;
+
+import java.util.Arrays;
+
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+/**
+ * A generalized suffix array, an alternative to {@link com.abahgat.suffixtree.GeneralizedSuffixTree}
+ * that keeps everything in a few primitive arrays instead of allocating nodes, edges and labels for every branch.
+ * <p>
+ * Each distinct key is appended once to a single char buffer, followed by a separator,
+ * and the indexes it was put with are kept in a sorted int[] of postings.
+ * The suffix array holds the position of every suffix in sorted order, so the suffixes starting with a word are all in one range.
+ * The LCP array holds the length of the prefix each suffix shares with the one before it,
+ * which finds the end of that range without comparing any more chars.
+ * <p>
+ * Suffixes are sorted by {@link #freeze()}. Keys put after that are searched by scanning them,
+ * until there are enough of them that sorting everything again is worth it.
+ */
+public class GeneralizedSuffixArray implements ISearchTree {
+	private static final char SEPARATOR = '\0';
+	/**
+	 * Sort again when unsorted keys take up more than this fraction of the char buffer.
+	 */
+	private static final float maxUnsortedFraction = 0.125f;
+	/**
+	 * Ranges smaller than this are sorted with insertion sort.
+	 */
+	private static final int INSERTION_SORT_THRESHOLD = 12;
+
+	private char[] chars = new char[1024];
+	private int charCount = 0;
+	/**
+	 * Key ids by key, ids are assigned in the order the keys were first put.
+	 */
+	private final TObjectIntHashMap<String> keyIds = new TObjectIntHashMap<String>(64, 0.5f, -1);
+	private long keyStringsFootprint = 0;
+	/**
+	 * The position of each key in the char buffer.
+	 */
+	private int[] keyStarts = new int[64];
+	/**
+	 * The indexes each key was put with, in increasing order.
+	 */
+	private int[][] postings = new int[64][];
+	private int[] postingCounts = new int[64];
+	private int keyCount = 0;
+	/**
+	 * The index of the last item that was put
+	 */
+	private int last = 0;
+
+	private int[] suffixes = new int[0];
+	private int[] lcp = new int[0];
+	/**
+	 * The total posting count of the keys of all suffixes before each position in the suffix array, for estimating counts.
+	 */
+	private int[] postingCountSums = new int[1];
+	/**
+	 * Keys below this have their suffixes in the suffix array, the rest are searched by scanning them.
+	 */
+	private int sortedKeyCount = 0;
+	private int sortedCharCount = 0;
+
+	@Override
+	public void put(String key, int index) throws IllegalStateException {
+		if (index < last) {
+			throw new IllegalStateException("The input index must not be less than any of the previously inserted ones. Got " + index + ", expected at least " + last);
+		} else {
+			last = index;
+		}
+
+		int keyId = keyIds.get(key);
+		if (keyId < 0) {
+			keyId = addKey(key);
+		}
+		addPosting(keyId, index);
+	}
+
+	private int addKey(String key) {
+		int length = key.length();
+		if (charCount + length + 1 > chars.length) {
+			chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + length + 1));
+		}
+		if (keyCount == keyStarts.length) {
+			keyStarts = Arrays.copyOf(keyStarts, keyCount * 2);
+			postings = Arrays.copyOf(postings, keyCount * 2);
+			postingCounts = Arrays.copyOf(postingCounts, keyCount * 2);
+		}
+
+		int keyId = keyCount++;
+		keyStarts[keyId] = charCount;
+		postings[keyId] = new int[1];
+		keyIds.put(key, keyId);
+		keyStringsFootprint += MemoryFootprint.string(key);
+
+		key.getChars(0, length, chars, charCount);
+		charCount += length;
+		chars[charCount++] = SEPARATOR;
+		return keyId;
+	}
+
+	private void addPosting(int keyId, int index) {
+		int[] keyPostings = postings[keyId];
+		int count = postingCounts[keyId];
+		if (count > 0 && keyPostings[count - 1] == index) {
+			return;
+		}
+		if (count == keyPostings.length) {
+			keyPostings = postings[keyId] = Arrays.copyOf(keyPostings, count * 2);
+		}
+		keyPostings[count] = index;
+		postingCounts[keyId] = count + 1;
+	}
+
+	@Override
+	public void freeze() {
+		int unsortedCharCount = charCount - sortedCharCount;
+		if (sortedKeyCount == 0 || unsortedCharCount > charCount * maxUnsortedFraction) {
+			sort();
+		}
+	}
+
+	@Override
+	public void search(String word, IntBitmap results) {
+		int length = word.length();
+		if (length == 0) {
+			return;
+		}
+
+		int first = lowerBound(word);
+		if (first < suffixes.length && compare(suffixes[first], word) == 0) {
+			addPostings(getKeyId(suffixes[first]), results);
+			for (int i = first + 1; i < suffixes.length && lcp[i] >= length; i++) {
+				if (i % SearchCancellation.CHECK_INTERVAL == 0) {
+					SearchCancellation.check();
+				}
+				addPostings(getKeyId(suffixes[i]), results);
+			}
+		}
+
+		for (int keyId = sortedKeyCount; keyId < keyCount; keyId++) {
+			if (keyId % SearchCancellation.CHECK_INTERVAL == 0) {
+				SearchCancellation.check();
+			}
+			if (keyContains(keyId, word)) {
+				addPostings(keyId, results);
+			}
+		}
+	}
+
+	/**
+	 * Sums the posting counts of the keys of all sorted suffixes starting with the word, as of the last sort.
+	 * Keys containing the word more than once are counted more than once, unsorted keys are not counted.
+	 */
+	@Override
+	public int estimateCount(String word) {
+		if (word.length() == 0) {
+			return 0;
+		}
+		int first = lowerBound(word);
+		int end = upperBound(word, first);
+		return postingCountSums[end] - postingCountSums[first];
+	}
+
+	@Override
+	public long getMemoryFootprint() {
+		long size = MemoryFootprint.object(8 * MemoryFootprint.REFERENCE + 5 * MemoryFootprint.INT + 8) +
+				MemoryFootprint.array(chars.length, MemoryFootprint.CHAR) +
+				MemoryFootprint.array(keyStarts.length, MemoryFootprint.INT) +
+				MemoryFootprint.array(postings.length, MemoryFootprint.REFERENCE) +
+				MemoryFootprint.array(postingCounts.length, MemoryFootprint.INT) +
+				MemoryFootprint.array(suffixes.length, MemoryFootprint.INT) +
+				MemoryFootprint.array(lcp.length, MemoryFootprint.INT) +
+				MemoryFootprint.array(postingCountSums.length, MemoryFootprint.INT);
+		for (int keyId = 0; keyId < keyCount; keyId++) {
+			size += MemoryFootprint.array(postings[keyId].length, MemoryFootprint.INT);
+		}
+		// the key map is half full, with a reference and an int per slot
+		size += MemoryFootprint.array(keyCount * 2, MemoryFootprint.REFERENCE + MemoryFootprint.INT);
+		size += keyStringsFootprint;
+		return size;
+	}
+
+	@Override
+	public SearchTreeStats getStats() {
+		long payloadCount = 0;
+		for (int keyId = 0; keyId < keyCount; keyId++) {
+			payloadCount += postingCounts[keyId];
+		}
+		return new SearchTreeStats(suffixes.length, 0, payloadCount, getMemoryFootprint());
+	}
+
+	/**
+	 * Sorts the suffixes of all keys and computes their LCP array.
+	 */
+	private void sort() {
+		int[] sortedSuffixes = new int[charCount - keyCount];
+		int suffixCount = 0;
+		for (int position = 0; position < charCount; position++) {
+			if (chars[position] != SEPARATOR) {
+				sortedSuffixes[suffixCount++] = position;
+			}
+		}
+		sortSuffixes(sortedSuffixes, 0, suffixCount, 0);
+
+		int[] sortedLcp = new int[suffixCount];
+		for (int i = 1; i < suffixCount; i++) {
+			sortedLcp[i] = commonPrefixLength(sortedSuffixes[i - 1], sortedSuffixes[i]);
+		}
+
+		this.suffixes = sortedSuffixes;
+		this.lcp = sortedLcp;
+		this.sortedKeyCount = keyCount;
+		this.sortedCharCount = charCount;
+
+		int[] sortedPostingCountSums = new int[suffixCount + 1];
+		for (int i = 0; i < suffixCount; i++) {
+			sortedPostingCountSums[i + 1] = sortedPostingCountSums[i] + postingCounts[getKeyId(sortedSuffixes[i])];
+		}
+		this.postingCountSums = sortedPostingCountSums;
+	}
+
+	/**
+	 * Multikey quicksort (Bentley and Sedgewick), the suffixes in the range already share their first depth chars.
+	 * Partitions on the char at depth, recursing into the two smaller partitions and looping on the largest.
+	 */
+	private void sortSuffixes(int[] a, int from, int to, int depth) {
+		while (to - from > INSERTION_SORT_THRESHOLD) {
+			int pivot = charAt(a[medianOfThree(a, from, from + (to - from) / 2, to - 1, depth)], depth);
+
+			// a[from, lt) < pivot, a[lt, i) == pivot, a[gt, to) > pivot
+			int lt = from;
+			int gt = to;
+			int i = from;
+			while (i < gt) {
+				int c = charAt(a[i], depth);
+				if (c < pivot) {
+					swap(a, lt++, i++);
+				} else if (c > pivot) {
+					swap(a, i, --gt);
+				} else {
+					i++;
+				}
+			}
+
+			int lessSize = lt - from;
+			int equalSize = gt - lt;
+			int greaterSize = to - gt;
+			// suffixes that are equal up to their separator are fully sorted
+			boolean equalNeedsSort = pivot != SEPARATOR;
+
+			if (lessSize >= equalSize && lessSize >= greaterSize) {
+				if (equalNeedsSort) {
+					sortSuffixes(a, lt, gt, depth + 1);
+				}
+				sortSuffixes(a, gt, to, depth);
+				to = lt;
+			} else if (greaterSize >= equalSize) {
+				if (equalNeedsSort) {
+					sortSuffixes(a, lt, gt, depth + 1);
+				}
+				sortSuffixes(a, from, lt, depth);
+				from = gt;
+			} else {
+				sortSuffixes(a, from, lt, depth);
+				sortSuffixes(a, gt, to, depth);
+				if (!equalNeedsSort) {
+					return;
+				}
+				from = lt;
+				to = gt;
+				depth++;
+			}
+		}
+
+		for (int i = from + 1; i < to; i++) {
+			for (int j = i; j > from && compareSuffixes(a[j - 1], a[j], depth) > 0; j--) {
+				swap(a, j - 1, j);
+			}
+		}
+	}
+
+	private int medianOfThree(int[] a, int i, int j, int k, int depth) {
+		int ci = charAt(a[i], depth);
+		int cj = charAt(a[j], depth);
+		int ck = charAt(a[k], depth);
+		if (ci < cj) {
+			return cj < ck ? j : (ci < ck ? k : i);
+		} else {
+			return ci < ck ? i : (cj < ck ? k : j);
+		}
+	}
+
+	private static void swap(int[] a, int i, int j) {
+		int swap = a[i];
+		a[i] = a[j];
+		a[j] = swap;
+	}
+
+	private char charAt(int suffix, int depth) {
+		return chars[suffix + depth];
+	}
+
+	/**
+	 * Compares two suffixes that share their first depth chars, up to their separators.
+	 */
+	private int compareSuffixes(int a, int b, int depth) {
+		while (true) {
+			char ca = chars[a + depth];
+			char cb = chars[b + depth];
+			if (ca != cb) {
+				return ca - cb;
+			} else if (ca == SEPARATOR) {
+				return 0;
+			}
+			depth++;
+		}
+	}
+
+	private int commonPrefixLength(int a, int b) {
+		int length = 0;
+		while (chars[a + length] == chars[b + length] && chars[a + length] != SEPARATOR) {
+			length++;
+		}
+		return length;
+	}
+
+	/**
+	 * Compares the start of a suffix with a word.
+	 *
+	 * @return 0 if the suffix starts with the word
+	 */
+	private int compare(int suffix, String word) {
+		for (int i = 0; i < word.length(); i++) {
+			char c = chars[suffix + i];
+			char w = word.charAt(i);
+			if (c != w) {
+				return c - w;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @return the first position in the suffix array where the suffix is not less than the word.
+	 */
+	private int lowerBound(String word) {
+		int low = 0;
+		int high = suffixes.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (compare(suffixes[mid], word) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return the first position at or after from in the suffix array where the suffix is greater than the word and does not start with it.
+	 */
+	private int upperBound(String word, int from) {
+		int low = from;
+		int high = suffixes.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (compare(suffixes[mid], word) <= 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return the id of the key containing the given sorted suffix
+	 */
+	private int getKeyId(int suffix) {
+		int keyId = Arrays.binarySearch(keyStarts, 0, sortedKeyCount, suffix);
+		if (keyId < 0) {
+			keyId = -keyId - 2;
+		}
+		return keyId;
+	}
+
+	private void addPostings(int keyId, IntBitmap results) {
+		int[] keyPostings = postings[keyId];
+		int count = postingCounts[keyId];
+		for (int i = 0; i < count; i++) {
+			results.add(keyPostings[i]);
+		}
+	}
+
+	private boolean keyContains(int keyId, String word) {
+		int start = keyStarts[keyId];
+		int end = (keyId + 1 < keyCount ? keyStarts[keyId + 1] : charCount) - 1;
+		int length = word.length();
+		char firstChar = word.charAt(0);
+		for (int position = start; position + length <= end; position++) {
+			if (chars[position] == firstChar && compare(position, word) == 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
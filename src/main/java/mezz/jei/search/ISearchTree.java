@@ -0,0 +1,42 @@
+package mezz.jei.search;
+
+/**
+ * An index from strings to the indexes of the elements they belong to.
+ * search(H) returns every index that was put with a key containing H.
+ */
+public interface ISearchTree {
+	/**
+	 * Adds the specified index under the given key.
+	 * Indexes must be put in non-decreasing order.
+	 *
+	 * @throws IllegalStateException if the index is less than a previously put index
+	 */
+	void put(String key, int index) throws IllegalStateException;
+
+	/**
+	 * Adds the indexes of all keys that contain the given word to the results.
+	 */
+	void search(String word, IntBitmap results);
+
+	/**
+	 * Estimates how many indexes {@link #search(String, IntBitmap)} would add for the given word, without searching.
+	 * Used to search the most selective words first, it should be cheap and close to the real count.
+	 */
+	int estimateCount(String word);
+
+	/**
+	 * Called after a batch of keys has been put, before they are searched.
+	 * Implementations can use it to prepare the keys for searching, more keys can still be put afterwards.
+	 */
+	void freeze();
+
+	/**
+	 * @return an estimate of the memory used by this index, in bytes
+	 */
+	long getMemoryFootprint();
+
+	/**
+	 * @return the number of nodes, edges and indexes of this index, for debugging slow searches
+	 */
+	SearchTreeStats getStats();
+}
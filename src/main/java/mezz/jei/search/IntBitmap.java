@@ -0,0 +1,592 @@
+package mezz.jei.search;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import gnu.trove.iterator.TIntIterator;
+
+/**
+ * A compressed set of non-negative ints, in the style of Roaring bitmaps.
+ * <p>
+ * Values are split into chunks of 65536 by their high 16 bits, so a set of ingredient indexes has one chunk per 65536 ingredients.
+ * A chunk with up to 4096 values keeps them in a sorted char[], a chunk with more keeps them in a bitmap of 1024 longs,
+ * whichever is smaller. Set operations work on whole chunks and iteration returns the values in increasing order.
+ */
+public class IntBitmap {
+	/**
+	 * Chunks with more values than this are kept in a bitmap, which takes the same 8kB as an array of this many chars.
+	 */
+	private static final int MAX_ARRAY_SIZE = 4096;
+	private static final int BITMAP_WORDS = 1024;
+
+	/**
+	 * The high 16 bits of the values in each chunk, in increasing order.
+	 */
+	private char[] keys = new char[0];
+	private Container[] containers = new Container[0];
+	/**
+	 * The number of chunks, none of them are empty.
+	 */
+	private int size = 0;
+
+	public IntBitmap() {
+
+	}
+
+	private IntBitmap(char[] keys, Container[] containers, int size) {
+		this.keys = keys;
+		this.containers = containers;
+		this.size = size;
+	}
+
+	public void add(int value) {
+		char key = highBits(value);
+		int index = Arrays.binarySearch(keys, 0, size, key);
+		if (index < 0) {
+			index = -index - 1;
+			insertContainer(index, key, new ArrayContainer());
+		}
+		containers[index] = containers[index].add(lowBits(value));
+	}
+
+	public boolean contains(int value) {
+		int index = Arrays.binarySearch(keys, 0, size, highBits(value));
+		return index >= 0 && containers[index].contains(lowBits(value));
+	}
+
+	public int getCardinality() {
+		int cardinality = 0;
+		for (int i = 0; i < size; i++) {
+			cardinality += containers[i].getCardinality();
+		}
+		return cardinality;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public IntBitmap copy() {
+		Container[] containersCopy = new Container[size];
+		for (int i = 0; i < size; i++) {
+			containersCopy[i] = containers[i].copy();
+		}
+		return new IntBitmap(Arrays.copyOf(keys, size), containersCopy, size);
+	}
+
+	/**
+	 * Keeps only the values that are also in the other bitmap.
+	 */
+	public void and(IntBitmap other) {
+		char[] newKeys = new char[Math.min(size, other.size)];
+		Container[] newContainers = new Container[newKeys.length];
+		int newSize = 0;
+
+		int i = 0;
+		int j = 0;
+		while (i < size && j < other.size) {
+			if (keys[i] < other.keys[j]) {
+				i++;
+			} else if (keys[i] > other.keys[j]) {
+				j++;
+			} else {
+				Container container = containers[i].and(other.containers[j]);
+				if (container.getCardinality() > 0) {
+					newKeys[newSize] = keys[i];
+					newContainers[newSize] = container;
+					newSize++;
+				}
+				i++;
+				j++;
+			}
+		}
+
+		setContainers(newKeys, newContainers, newSize);
+	}
+
+	/**
+	 * Adds all values of the other bitmap.
+	 */
+	public void or(IntBitmap other) {
+		char[] newKeys = new char[size + other.size];
+		Container[] newContainers = new Container[newKeys.length];
+		int newSize = 0;
+
+		int i = 0;
+		int j = 0;
+		while (i < size || j < other.size) {
+			if (j == other.size || (i < size && keys[i] < other.keys[j])) {
+				newKeys[newSize] = keys[i];
+				newContainers[newSize] = containers[i];
+				i++;
+			} else if (i == size || keys[i] > other.keys[j]) {
+				newKeys[newSize] = other.keys[j];
+				newContainers[newSize] = other.containers[j].copy();
+				j++;
+			} else {
+				newKeys[newSize] = keys[i];
+				newContainers[newSize] = containers[i].or(other.containers[j]);
+				i++;
+				j++;
+			}
+			newSize++;
+		}
+
+		setContainers(newKeys, newContainers, newSize);
+	}
+
+	/**
+	 * Removes all values of the other bitmap.
+	 */
+	public void andNot(IntBitmap other) {
+		char[] newKeys = new char[size];
+		Container[] newContainers = new Container[size];
+		int newSize = 0;
+
+		int j = 0;
+		for (int i = 0; i < size; i++) {
+			while (j < other.size && other.keys[j] < keys[i]) {
+				j++;
+			}
+			Container container = containers[i];
+			if (j < other.size && other.keys[j] == keys[i]) {
+				container = container.andNot(other.containers[j]);
+			}
+			if (container.getCardinality() > 0) {
+				newKeys[newSize] = keys[i];
+				newContainers[newSize] = container;
+				newSize++;
+			}
+		}
+
+		setContainers(newKeys, newContainers, newSize);
+	}
+
+	/**
+	 * @return an iterator over the values in increasing order
+	 */
+	public TIntIterator iterator() {
+		return new BitmapIterator();
+	}
+
+	/**
+	 * @return the values in increasing order
+	 */
+	public int[] toArray() {
+		int[] values = new int[getCardinality()];
+		TIntIterator iterator = iterator();
+		for (int i = 0; i < values.length; i++) {
+			values[i] = iterator.next();
+		}
+		return values;
+	}
+
+	public long getMemoryFootprint() {
+		long size = MemoryFootprint.object(2 * MemoryFootprint.REFERENCE + MemoryFootprint.INT) +
+				MemoryFootprint.array(keys.length, MemoryFootprint.CHAR) +
+				MemoryFootprint.array(containers.length, MemoryFootprint.REFERENCE);
+		for (int i = 0; i < this.size; i++) {
+			size += containers[i].getMemoryFootprint();
+		}
+		return size;
+	}
+
+	private void insertContainer(int index, char key, Container container) {
+		if (size == keys.length) {
+			int newLength = Math.max(4, size * 2);
+			keys = Arrays.copyOf(keys, newLength);
+			containers = Arrays.copyOf(containers, newLength);
+		}
+		System.arraycopy(keys, index, keys, index + 1, size - index);
+		System.arraycopy(containers, index, containers, index + 1, size - index);
+		keys[index] = key;
+		containers[index] = container;
+		size++;
+	}
+
+	private void setContainers(char[] keys, Container[] containers, int size) {
+		this.keys = keys;
+		this.containers = containers;
+		this.size = size;
+	}
+
+	private static char highBits(int value) {
+		return (char) (value >>> 16);
+	}
+
+	private static char lowBits(int value) {
+		return (char) value;
+	}
+
+	private class BitmapIterator implements TIntIterator {
+		private int containerIndex = 0;
+		private int position = 0;
+		private int nextPosition = -1;
+
+		public BitmapIterator() {
+			advance();
+		}
+
+		private void advance() {
+			while (containerIndex < size) {
+				nextPosition = containers[containerIndex].nextPosition(position);
+				if (nextPosition >= 0) {
+					return;
+				}
+				containerIndex++;
+				position = 0;
+			}
+			nextPosition = -1;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return nextPosition >= 0;
+		}
+
+		@Override
+		public int next() {
+			if (nextPosition < 0) {
+				throw new NoSuchElementException();
+			}
+			int value = (keys[containerIndex] << 16) | containers[containerIndex].getValue(nextPosition);
+			position = nextPosition + 1;
+			advance();
+			return value;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * The low 16 bits of the values in one chunk.
+	 * Operations that change the values return the container to use from then on, which may be a different type.
+	 */
+	private static abstract class Container {
+		public abstract Container add(char value);
+
+		public abstract boolean contains(char value);
+
+		public abstract int getCardinality();
+
+		public abstract Container and(Container other);
+
+		public abstract Container or(Container other);
+
+		public abstract Container andNot(Container other);
+
+		public abstract Container copy();
+
+		/**
+		 * @return the first position at or after the given one that holds a value, or -1 if there is none
+		 */
+		public abstract int nextPosition(int position);
+
+		public abstract char getValue(int position);
+
+		public abstract long getMemoryFootprint();
+	}
+
+	private static final class ArrayContainer extends Container {
+		private char[] values;
+		private int cardinality;
+
+		public ArrayContainer() {
+			this(new char[4], 0);
+		}
+
+		public ArrayContainer(char[] values, int cardinality) {
+			this.values = values;
+			this.cardinality = cardinality;
+		}
+
+		@Override
+		public Container add(char value) {
+			int index;
+			if (cardinality == 0 || value > values[cardinality - 1]) {
+				index = cardinality;
+			} else {
+				index = Arrays.binarySearch(values, 0, cardinality, value);
+				if (index >= 0) {
+					return this;
+				}
+				index = -index - 1;
+			}
+
+			if (cardinality == MAX_ARRAY_SIZE) {
+				BitmapContainer bitmap = toBitmap();
+				bitmap.add(value);
+				return bitmap;
+			}
+
+			if (cardinality == values.length) {
+				values = Arrays.copyOf(values, Math.min(values.length * 2, MAX_ARRAY_SIZE));
+			}
+			System.arraycopy(values, index, values, index + 1, cardinality - index);
+			values[index] = value;
+			cardinality++;
+			return this;
+		}
+
+		@Override
+		public boolean contains(char value) {
+			return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+		}
+
+		@Override
+		public int getCardinality() {
+			return cardinality;
+		}
+
+		@Override
+		public Container and(Container other) {
+			char[] result = new char[cardinality];
+			int resultSize = 0;
+			if (other instanceof ArrayContainer) {
+				ArrayContainer otherArray = (ArrayContainer) other;
+				int i = 0;
+				int j = 0;
+				while (i < cardinality && j < otherArray.cardinality) {
+					char a = values[i];
+					char b = otherArray.values[j];
+					if (a < b) {
+						i++;
+					} else if (a > b) {
+						j++;
+					} else {
+						result[resultSize++] = a;
+						i++;
+						j++;
+					}
+				}
+			} else {
+				for (int i = 0; i < cardinality; i++) {
+					if (other.contains(values[i])) {
+						result[resultSize++] = values[i];
+					}
+				}
+			}
+			return new ArrayContainer(result, resultSize);
+		}
+
+		@Override
+		public Container or(Container other) {
+			if (other instanceof BitmapContainer) {
+				return other.or(this);
+			}
+
+			ArrayContainer otherArray = (ArrayContainer) other;
+			char[] result = new char[cardinality + otherArray.cardinality];
+			int resultSize = 0;
+			int i = 0;
+			int j = 0;
+			while (i < cardinality || j < otherArray.cardinality) {
+				if (j == otherArray.cardinality || (i < cardinality && values[i] < otherArray.values[j])) {
+					result[resultSize++] = values[i++];
+				} else if (i == cardinality || values[i] > otherArray.values[j]) {
+					result[resultSize++] = otherArray.values[j++];
+				} else {
+					result[resultSize++] = values[i];
+					i++;
+					j++;
+				}
+			}
+
+			ArrayContainer union = new ArrayContainer(result, resultSize);
+			if (resultSize > MAX_ARRAY_SIZE) {
+				return union.toBitmap();
+			}
+			return union;
+		}
+
+		@Override
+		public Container andNot(Container other) {
+			char[] result = new char[cardinality];
+			int resultSize = 0;
+			for (int i = 0; i < cardinality; i++) {
+				if (!other.contains(values[i])) {
+					result[resultSize++] = values[i];
+				}
+			}
+			return new ArrayContainer(result, resultSize);
+		}
+
+		@Override
+		public Container copy() {
+			return new ArrayContainer(Arrays.copyOf(values, Math.max(cardinality, 1)), cardinality);
+		}
+
+		@Override
+		public int nextPosition(int position) {
+			return position < cardinality ? position : -1;
+		}
+
+		@Override
+		public char getValue(int position) {
+			return values[position];
+		}
+
+		@Override
+		public long getMemoryFootprint() {
+			return MemoryFootprint.object(MemoryFootprint.REFERENCE + MemoryFootprint.INT) +
+					MemoryFootprint.array(values.length, MemoryFootprint.CHAR);
+		}
+
+		private BitmapContainer toBitmap() {
+			BitmapContainer bitmap = new BitmapContainer();
+			for (int i = 0; i < cardinality; i++) {
+				bitmap.add(values[i]);
+			}
+			return bitmap;
+		}
+	}
+
+	private static final class BitmapContainer extends Container {
+		private final long[] words;
+		private int cardinality;
+
+		public BitmapContainer() {
+			this(new long[BITMAP_WORDS], 0);
+		}
+
+		private BitmapContainer(long[] words, int cardinality) {
+			this.words = words;
+			this.cardinality = cardinality;
+		}
+
+		@Override
+		public Container add(char value) {
+			int word = value >>> 6;
+			long bit = 1L << value;
+			if ((words[word] & bit) == 0) {
+				words[word] |= bit;
+				cardinality++;
+			}
+			return this;
+		}
+
+		@Override
+		public boolean contains(char value) {
+			return (words[value >>> 6] & (1L << value)) != 0;
+		}
+
+		@Override
+		public int getCardinality() {
+			return cardinality;
+		}
+
+		@Override
+		public Container and(Container other) {
+			if (other instanceof ArrayContainer) {
+				return other.and(this);
+			}
+			long[] otherWords = ((BitmapContainer) other).words;
+			long[] result = new long[BITMAP_WORDS];
+			for (int i = 0; i < BITMAP_WORDS; i++) {
+				result[i] = words[i] & otherWords[i];
+			}
+			return createOptimized(result);
+		}
+
+		@Override
+		public Container or(Container other) {
+			long[] result = Arrays.copyOf(words, BITMAP_WORDS);
+			if (other instanceof ArrayContainer) {
+				ArrayContainer otherArray = (ArrayContainer) other;
+				for (int i = 0; i < otherArray.cardinality; i++) {
+					char value = otherArray.values[i];
+					result[value >>> 6] |= 1L << value;
+				}
+			} else {
+				long[] otherWords = ((BitmapContainer) other).words;
+				for (int i = 0; i < BITMAP_WORDS; i++) {
+					result[i] |= otherWords[i];
+				}
+			}
+			return new BitmapContainer(result, countBits(result));
+		}
+
+		@Override
+		public Container andNot(Container other) {
+			long[] result = Arrays.copyOf(words, BITMAP_WORDS);
+			if (other instanceof ArrayContainer) {
+				ArrayContainer otherArray = (ArrayContainer) other;
+				for (int i = 0; i < otherArray.cardinality; i++) {
+					char value = otherArray.values[i];
+					result[value >>> 6] &= ~(1L << value);
+				}
+			} else {
+				long[] otherWords = ((BitmapContainer) other).words;
+				for (int i = 0; i < BITMAP_WORDS; i++) {
+					result[i] &= ~otherWords[i];
+				}
+			}
+			return createOptimized(result);
+		}
+
+		@Override
+		public Container copy() {
+			return new BitmapContainer(Arrays.copyOf(words, BITMAP_WORDS), cardinality);
+		}
+
+		@Override
+		public int nextPosition(int position) {
+			int word = position >>> 6;
+			if (word >= BITMAP_WORDS) {
+				return -1;
+			}
+			long bits = words[word] & (-1L << position);
+			while (true) {
+				if (bits != 0) {
+					return (word << 6) + Long.numberOfTrailingZeros(bits);
+				}
+				if (++word == BITMAP_WORDS) {
+					return -1;
+				}
+				bits = words[word];
+			}
+		}
+
+		@Override
+		public char getValue(int position) {
+			return (char) position;
+		}
+
+		@Override
+		public long getMemoryFootprint() {
+			return MemoryFootprint.object(MemoryFootprint.REFERENCE + MemoryFootprint.INT) +
+					MemoryFootprint.array(BITMAP_WORDS, 8);
+		}
+
+		/**
+		 * @return a bitmap container for the words, or an array container if there are few enough values
+		 */
+		private static Container createOptimized(long[] words) {
+			int cardinality = countBits(words);
+			if (cardinality > MAX_ARRAY_SIZE) {
+				return new BitmapContainer(words, cardinality);
+			}
+			char[] values = new char[cardinality];
+			int valueCount = 0;
+			for (int i = 0; i < BITMAP_WORDS; i++) {
+				long bits = words[i];
+				while (bits != 0) {
+					values[valueCount++] = (char) ((i << 6) + Long.numberOfTrailingZeros(bits));
+					bits &= bits - 1;
+				}
+			}
+			return new ArrayContainer(values, cardinality);
+		}
+
+		private static int countBits(long[] words) {
+			int count = 0;
+			for (long word : words) {
+				count += Long.bitCount(word);
+			}
+			return count;
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package mezz.jei.search;
+
+/**
+ * Rough object size estimates for comparing the memory used by search indexes.
+ * Assumes a 64-bit JVM with compressed references, sizes are aligned to 8 bytes.
+ */
+public final class MemoryFootprint {
+	public static final int REFERENCE = 4;
+	public static final int INT = 4;
+	public static final int CHAR = 2;
+	private static final int OBJECT_HEADER = 12;
+	private static final int ARRAY_HEADER = 16;
+
+	private MemoryFootprint() {
+
+	}
+
+	/**
+	 * @param fieldBytes the total size of the object's fields
+	 */
+	public static long object(int fieldBytes) {
+		return align(OBJECT_HEADER + fieldBytes);
+	}
+
+	public static long array(int length, int elementBytes) {
+		return align(ARRAY_HEADER + (long) length * elementBytes);
+	}
+
+	public static long string(String string) {
+		return object(REFERENCE + INT) + array(string.length(), CHAR);
+	}
+
+	private static long align(long bytes) {
+		return (bytes + 7) & ~7L;
+	}
+}
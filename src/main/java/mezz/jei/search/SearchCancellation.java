@@ -0,0 +1,28 @@
+package mezz.jei.search;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Searches run on the item filter's search thread, and a search is cancelled by interrupting that thread.
+ * The long loops of a search check for it every {@link #CHECK_INTERVAL} iterations,
+ * so that the Minecraft thread never waits long for a cancelled search to stop.
+ */
+public final class SearchCancellation {
+	/**
+	 * How many iterations a loop runs between checks.
+	 */
+	public static final int CHECK_INTERVAL = 1024;
+
+	private SearchCancellation() {
+
+	}
+
+	/**
+	 * @throws CancellationException if the thread was interrupted
+	 */
+	public static void check() throws CancellationException {
+		if (Thread.currentThread().isInterrupted()) {
+			throw new CancellationException("The search was cancelled.");
+		}
+	}
+}
@@ -0,0 +1,450 @@
+package mezz.jei.search;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.primitives.Longs;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import mezz.jei.config.Config;
+import mezz.jei.gui.ingredients.IIngredientListElement;
+import mezz.jei.util.Log;
+import net.minecraft.client.Minecraft;
+import net.minecraftforge.fml.common.Loader;
+import net.minecraftforge.fml.common.ModContainer;
+
+/**
+ * Saves the item filter's search index to a file in the config dir,
+ * so that the next start can load it instead of getting the search strings of every ingredient again.
+ * <p>
+ * The file has the search strings of every element in list order, and the token postings of every search tree.
+ * It is only used when its key matches, the key is a hash of everything that the index depends on:
+ * the mod list, the search config, the current language and the unique ids of all ingredients in the list.
+ * <p>
+ * Changing the language restarts JEI, so there is a file for each of the last few languages,
+ * and the last few indexes are also kept in memory. Switching back to a language reuses its index.
+ * This must be kept between restarts of JEI for the indexes in memory to be reused.
+ */
+public class SearchIndexCache {
+	private static final String FILE_NAME_PREFIX = "searchIndex_";
+	private static final String FILE_NAME_SUFFIX = ".bin";
+	/**
+	 * The number of languages that have a cache file, the files of languages that were used longer ago are deleted.
+	 */
+	private static final int MAX_CACHED_FILES = 4;
+	/**
+	 * The number of indexes kept in memory, each one has the search strings of every ingredient.
+	 */
+	private static final int MAX_CACHED_CONTENTS = 2;
+	private static final int MAGIC = 0x4A454953;
+	/**
+	 * Increase this when the file format or the contents of the search index change.
+	 */
+	private static final int VERSION = 2;
+
+	private final File directory;
+	private final Cache<HashCode, Contents> recentContents = CacheBuilder.newBuilder()
+			.maximumSize(MAX_CACHED_CONTENTS)
+			.build();
+
+	public SearchIndexCache(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Loads the cached search index if it was saved with the given key.
+	 */
+	@Nullable
+	public Contents load(Key key) {
+		Contents recent = recentContents.getIfPresent(key.getHash());
+		if (recent != null) {
+			Log.info("Using the search index for {} from memory.", key.getLanguageCode());
+			return recent;
+		}
+
+		File file = getFile(key.getLanguageCode());
+		if (!file.isFile()) {
+			return null;
+		}
+
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				Contents contents = read(in, key.getHash());
+				if (contents != null) {
+					recentContents.put(key.getHash(), contents);
+					// keep the file of a language that is still used from being deleted
+					if (!file.setLastModified(System.currentTimeMillis())) {
+						Log.debug("Could not update the last modified time of {}", file);
+					}
+				}
+				return contents;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			Log.error("Failed to read the search index cache {}", file, e);
+		} catch (RuntimeException e) {
+			Log.error("The search index cache {} is corrupted", file, e);
+		}
+		return null;
+	}
+
+	@Nullable
+	private static Contents read(DataInputStream in, HashCode key) throws IOException {
+		if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+			Log.info("Search index cache is from a different version of JEI.");
+			return null;
+		}
+
+		byte[] keyBytes = new byte[in.readInt()];
+		in.readFully(keyBytes);
+		if (!Arrays.equals(keyBytes, key.asBytes())) {
+			Log.info("Search index cache is out of date.");
+			return null;
+		}
+
+		int elementCount = in.readInt();
+		List<CachedElement> elements = new ArrayList<CachedElement>(elementCount);
+		for (int i = 0; i < elementCount; i++) {
+			int ingredientClassIndex = in.readInt();
+			int ingredientIndex = in.readInt();
+			String uid = readString(in);
+			String[] strings = new String[CachedElement.STRING_COUNT];
+			for (int s = 0; s < strings.length; s++) {
+				strings[s] = readString(in);
+			}
+			elements.add(new CachedElement(ingredientClassIndex, ingredientIndex, uid, strings));
+		}
+
+		int treeCount = in.readInt();
+		Map<Character, TokenPostings> tokens = new HashMap<Character, TokenPostings>();
+		for (int i = 0; i < treeCount; i++) {
+			char prefix = in.readChar();
+			int tokenCount = in.readInt();
+			List<String> treeTokens = new ArrayList<String>(tokenCount);
+			int[][] postings = new int[tokenCount][];
+			for (int tokenId = 0; tokenId < tokenCount; tokenId++) {
+				treeTokens.add(readString(in));
+				postings[tokenId] = readInts(in);
+			}
+			tokens.put(prefix, new TokenPostings(treeTokens, postings));
+		}
+
+		return new Contents(elements, tokens);
+	}
+
+	/**
+	 * Saves the search index, replacing the previous file of the same language.
+	 * Does not use anything that must be accessed from the Minecraft thread.
+	 */
+	public void save(Key key, List<CachedElement> elements, Map<Character, TokenPostings> tokens) {
+		recentContents.put(key.getHash(), new Contents(elements, tokens));
+
+		long start_time = System.currentTimeMillis();
+		File file = getFile(key.getLanguageCode());
+		File tempFile = new File(directory, file.getName() + ".tmp");
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+			try {
+				write(out, key.getHash(), elements, tokens);
+			} finally {
+				out.close();
+			}
+
+			if (file.exists() && !file.delete()) {
+				Log.warning("Could not replace the search index cache {}", file);
+				return;
+			}
+			if (!tempFile.renameTo(file)) {
+				Log.warning("Could not move the search index cache to {}", file);
+				return;
+			}
+			Log.info("Saved search index cache in {} ms", System.currentTimeMillis() - start_time);
+		} catch (IOException e) {
+			Log.error("Failed to save the search index cache {}", file, e);
+		}
+
+		deleteOldFiles();
+	}
+
+	private File getFile(String languageCode) {
+		String fileLanguage = languageCode.toLowerCase(Locale.ENGLISH).replaceAll("[^a-z0-9_-]", "_");
+		return new File(directory, FILE_NAME_PREFIX + fileLanguage + FILE_NAME_SUFFIX);
+	}
+
+	/**
+	 * Deletes the files of the languages that were used longest ago.
+	 */
+	private void deleteOldFiles() {
+		File[] files = directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith(FILE_NAME_PREFIX) && name.endsWith(FILE_NAME_SUFFIX);
+			}
+		});
+		if (files == null || files.length <= MAX_CACHED_FILES) {
+			return;
+		}
+
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File file1, File file2) {
+				return Longs.compare(file2.lastModified(), file1.lastModified());
+			}
+		});
+		for (int i = MAX_CACHED_FILES; i < files.length; i++) {
+			if (!files[i].delete()) {
+				Log.warning("Could not delete the search index cache {}", files[i]);
+			}
+		}
+	}
+
+	private static void write(DataOutputStream out, HashCode key, List<CachedElement> elements, Map<Character, TokenPostings> tokens) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+
+		byte[] keyBytes = key.asBytes();
+		out.writeInt(keyBytes.length);
+		out.write(keyBytes);
+
+		out.writeInt(elements.size());
+		for (CachedElement element : elements) {
+			out.writeInt(element.getIngredientClassIndex());
+			out.writeInt(element.getIngredientIndex());
+			writeString(out, element.getUid());
+			for (String string : element.strings) {
+				writeString(out, string);
+			}
+		}
+
+		out.writeInt(tokens.size());
+		for (Map.Entry<Character, TokenPostings> entry : tokens.entrySet()) {
+			out.writeChar(entry.getKey());
+			TokenPostings treeTokens = entry.getValue();
+			int tokenCount = treeTokens.getTokenCount();
+			out.writeInt(tokenCount);
+			for (int tokenId = 0; tokenId < tokenCount; tokenId++) {
+				writeString(out, treeTokens.getToken(tokenId));
+				int postingCount = treeTokens.getPostingCount(tokenId);
+				int[] postings = treeTokens.getPostings(tokenId);
+				out.writeInt(postingCount);
+				for (int i = 0; i < postingCount; i++) {
+					out.writeInt(postings[i]);
+				}
+			}
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String string) throws IOException {
+		out.writeInt(string.length());
+		out.writeChars(string);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			chars[i] = in.readChar();
+		}
+		return new String(chars);
+	}
+
+	private static int[] readInts(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		int[] ints = new int[length];
+		for (int i = 0; i < length; i++) {
+			ints[i] = in.readInt();
+		}
+		return ints;
+	}
+
+	/**
+	 * Creates the key that the search index is cached under.
+	 * Everything except the ingredients is added when it is created, so it must be created on the Minecraft thread.
+	 */
+	public static class KeyBuilder {
+		private final Hasher hasher = Hashing.murmur3_128().newHasher();
+		private final String languageCode;
+
+		public KeyBuilder() {
+			hasher.putInt(VERSION);
+
+			List<ModContainer> mods = Loader.instance().getActiveModList();
+			hasher.putInt(mods.size());
+			for (ModContainer mod : mods) {
+				putString(mod.getModId());
+				putString(mod.getVersion());
+			}
+
+			Minecraft minecraft = Minecraft.getMinecraft();
+			languageCode = minecraft.getLanguageManager().getCurrentLanguage().getLanguageCode();
+			putString(languageCode);
+			hasher.putBoolean(minecraft.gameSettings.advancedItemTooltips);
+
+			putString(Config.getModNameFormat());
+			hasher.putInt(Config.getModNameSearchMode().ordinal());
+			hasher.putInt(Config.getTooltipSearchMode().ordinal());
+			hasher.putInt(Config.getOreDictSearchMode().ordinal());
+			hasher.putInt(Config.getCreativeTabSearchMode().ordinal());
+			hasher.putInt(Config.getColorSearchMode().ordinal());
+		}
+
+		public void addIngredientClass(Class ingredientClass) {
+			putString(ingredientClass.getName());
+		}
+
+		public void addIngredient(String uid) {
+			putString(uid);
+		}
+
+		public Key build() {
+			return new Key(hasher.hash(), languageCode);
+		}
+
+		private void putString(String string) {
+			hasher.putInt(string.length());
+			hasher.putString(string, Charsets.UTF_8);
+		}
+	}
+
+	/**
+	 * The key that the search index is cached under, and the language that chooses its file.
+	 */
+	public static class Key {
+		private final HashCode hash;
+		private final String languageCode;
+
+		private Key(HashCode hash, String languageCode) {
+			this.hash = hash;
+			this.languageCode = languageCode;
+		}
+
+		public HashCode getHash() {
+			return hash;
+		}
+
+		public String getLanguageCode() {
+			return languageCode;
+		}
+	}
+
+	public static class Contents {
+		private final List<CachedElement> elements;
+		private final Map<Character, TokenPostings> tokens;
+
+		private Contents(List<CachedElement> elements, Map<Character, TokenPostings> tokens) {
+			this.elements = Collections.unmodifiableList(elements);
+			this.tokens = Collections.unmodifiableMap(tokens);
+		}
+
+		public List<CachedElement> getElements() {
+			return elements;
+		}
+
+		public Map<Character, TokenPostings> getTokens() {
+			return tokens;
+		}
+	}
+
+	/**
+	 * The search strings of an ingredient list element, and what is needed to find its ingredient again.
+	 * <p>
+	 * Ingredients are found by their position, because stacks that only differ in NBT can share a uid.
+	 * The cache key already pins the uids of the visible ingredients and their order,
+	 * the uid is kept to check that the position still holds the same ingredient.
+	 */
+	public static class CachedElement {
+		private static final int STRING_COUNT = 7;
+
+		private final int ingredientClassIndex;
+		private final int ingredientIndex;
+		private final String uid;
+		private final String[] strings;
+
+		public CachedElement(int ingredientClassIndex, int ingredientIndex, String uid, IIngredientListElement element) {
+			this(ingredientClassIndex, ingredientIndex, uid, new String[]{
+					element.getDisplayName(),
+					element.getModName(),
+					element.getModId(),
+					element.getTooltipString(),
+					element.getOreDictString(),
+					element.getCreativeTabsString(),
+					element.getColorString()
+			});
+		}
+
+		private CachedElement(int ingredientClassIndex, int ingredientIndex, String uid, String[] strings) {
+			this.ingredientClassIndex = ingredientClassIndex;
+			this.ingredientIndex = ingredientIndex;
+			this.uid = uid;
+			this.strings = strings;
+		}
+
+		/**
+		 * @return the index of the ingredient's class in the ingredient registry's registered classes
+		 */
+		public int getIngredientClassIndex() {
+			return ingredientClassIndex;
+		}
+
+		/**
+		 * @return the position of the ingredient among the visible ingredients of its class
+		 */
+		public int getIngredientIndex() {
+			return ingredientIndex;
+		}
+
+		public String getUid() {
+			return uid;
+		}
+
+		public String getDisplayName() {
+			return strings[0];
+		}
+
+		public String getModName() {
+			return strings[1];
+		}
+
+		public String getModId() {
+			return strings[2];
+		}
+
+		public String getTooltipString() {
+			return strings[3];
+		}
+
+		public String getOreDictString() {
+			return strings[4];
+		}
+
+		public String getCreativeTabsString() {
+			return strings[5];
+		}
+
+		public String getColorString() {
+			return strings[6];
+		}
+	}
+}
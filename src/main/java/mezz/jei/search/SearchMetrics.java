@@ -0,0 +1,167 @@
+package mezz.jei.search;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import mezz.jei.util.LatencyHistogram;
+
+/**
+ * Counters and latency histograms of the item filter's searches, for finding out why searching is slow.
+ * Searches record into it from the search thread, it can be read from any thread.
+ */
+public class SearchMetrics {
+	public enum Stage {
+		/**
+		 * Splitting the filter text into terms.
+		 */
+		PARSE("parse"),
+		/**
+		 * Searching a tree for one term, only when the term's results were not cached.
+		 */
+		TREE_SEARCH("tree_search"),
+		/**
+		 * Searching the fuzzy index for one term.
+		 */
+		FUZZY_SEARCH("fuzzy_search"),
+		/**
+		 * Combining the matches of the terms, not including the tree and fuzzy searches.
+		 */
+		INTERSECTION("intersection"),
+		/**
+		 * Creating the ingredient list from the matches.
+		 */
+		MATERIALIZATION("materialization"),
+		/**
+		 * The whole search, from the filter text to the ingredient list.
+		 */
+		QUERY("query");
+
+		private final String name;
+
+		Stage(String name) {
+			this.name = name;
+		}
+	}
+
+	public enum Counter {
+		/**
+		 * Searches that started from the last search's matches.
+		 */
+		NARROWED_QUERIES("narrowed_queries"),
+		/**
+		 * Terms whose results were found in the search results cache.
+		 */
+		CACHED_TERM_RESULTS("cached_term_results"),
+		/**
+		 * Terms that were applied by checking the search strings of the remaining candidates.
+		 */
+		CANDIDATE_CHECKS("candidate_checks"),
+		/**
+		 * Searches that were interrupted because the filter text changed.
+		 */
+		CANCELLED_QUERIES("cancelled_queries");
+
+		private final String name;
+
+		Counter(String name) {
+			this.name = name;
+		}
+	}
+
+	private final LatencyHistogram[] histograms;
+	private final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+
+	public SearchMetrics() {
+		Stage[] stages = Stage.values();
+		this.histograms = new LatencyHistogram[stages.length];
+		for (int i = 0; i < stages.length; i++) {
+			histograms[i] = new LatencyHistogram();
+		}
+	}
+
+	public void record(Stage stage, long nanos) {
+		histograms[stage.ordinal()].record(nanos);
+	}
+
+	public void increment(Counter counter) {
+		counters.incrementAndGet(counter.ordinal());
+	}
+
+	/**
+	 * @return one line for each stage and counter
+	 */
+	public List<String> getSummary() {
+		List<String> lines = new ArrayList<String>();
+		for (Stage stage : Stage.values()) {
+			LatencyHistogram histogram = histograms[stage.ordinal()];
+			long count = histogram.getCount();
+			if (count == 0) {
+				lines.add(String.format("%s: none", stage.name));
+			} else {
+				lines.add(String.format("%s: %d, mean %.3f ms, p50 <= %.3f ms, p90 <= %.3f ms, p99 <= %.3f ms, max %.3f ms",
+						stage.name,
+						count,
+						histogram.getMeanMicros() / 1000.0,
+						histogram.getPercentileMicros(0.5) / 1000.0,
+						histogram.getPercentileMicros(0.9) / 1000.0,
+						histogram.getPercentileMicros(0.99) / 1000.0,
+						histogram.getMaxMicros() / 1000.0
+				));
+			}
+		}
+		for (Counter counter : Counter.values()) {
+			lines.add(counter.name + ": " + counters.get(counter.ordinal()));
+		}
+		return lines;
+	}
+
+	/**
+	 * Appends the current metrics and the stats of each search tree to the CSV file, one "time,metric,value" row each.
+	 * The times are milliseconds since the epoch, latencies are in microseconds and are totals since the game started.
+	 * Each write is appended, so that the metrics from different times can be compared.
+	 */
+	public void writeCsv(File file, Map<String, SearchTreeStats> treeStats) throws IOException {
+		long now = System.currentTimeMillis();
+		boolean writeHeader = !file.exists();
+		BufferedWriter out = new BufferedWriter(new FileWriter(file, true));
+		try {
+			if (writeHeader) {
+				out.write("time,metric,value");
+				out.newLine();
+			}
+			for (Stage stage : Stage.values()) {
+				LatencyHistogram histogram = histograms[stage.ordinal()];
+				writeCsvRow(out, now, stage.name + ".count", histogram.getCount());
+				writeCsvRow(out, now, stage.name + ".mean_us", histogram.getMeanMicros());
+				writeCsvRow(out, now, stage.name + ".p50_us", histogram.getPercentileMicros(0.5));
+				writeCsvRow(out, now, stage.name + ".p90_us", histogram.getPercentileMicros(0.9));
+				writeCsvRow(out, now, stage.name + ".p99_us", histogram.getPercentileMicros(0.99));
+				writeCsvRow(out, now, stage.name + ".max_us", histogram.getMaxMicros());
+			}
+			for (Counter counter : Counter.values()) {
+				writeCsvRow(out, now, counter.name, counters.get(counter.ordinal()));
+			}
+			for (Map.Entry<String, SearchTreeStats> entry : treeStats.entrySet()) {
+				String tree = "tree." + entry.getKey();
+				SearchTreeStats stats = entry.getValue();
+				writeCsvRow(out, now, tree + ".nodes", stats.getNodeCount());
+				writeCsvRow(out, now, tree + ".edges", stats.getEdgeCount());
+				writeCsvRow(out, now, tree + ".payload", stats.getPayloadCount());
+				writeCsvRow(out, now, tree + ".bytes", stats.getMemoryFootprint());
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void writeCsvRow(BufferedWriter out, long time, String metric, long value) throws IOException {
+		out.write(time + "," + metric + "," + value);
+		out.newLine();
+	}
+}
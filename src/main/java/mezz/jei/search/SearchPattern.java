@@ -0,0 +1,165 @@
+package mezz.jei.search;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A search word with '*' wildcards, matched against whole words of the search strings.
+ * '*' matches any chars, and the pattern must match from the start of a word unless it starts with '*',
+ * and up to the end of the word unless it ends with '*'.
+ * So "ore*" finds words starting with "ore", "*ium" finds words ending with "ium",
+ * and "ingot*copper" finds words like "ingotcopper".
+ * <p>
+ * Every literal between the wildcards is a substring of the matching word, so the search trees find the candidates
+ * for each literal, and only the candidates found for all of them are checked against the pattern.
+ */
+public class SearchPattern {
+	private static final char WILDCARD = '*';
+
+	private final String[] literals;
+	private final boolean anchoredStart;
+	private final boolean anchoredEnd;
+
+	/**
+	 * @return the pattern of the word, or null if it has no wildcards and is searched as a plain substring
+	 */
+	@Nullable
+	public static SearchPattern parse(String word) {
+		if (word.indexOf(WILDCARD) < 0) {
+			return null;
+		}
+
+		List<String> literals = new ArrayList<String>();
+		int start = 0;
+		while (start <= word.length()) {
+			int end = word.indexOf(WILDCARD, start);
+			if (end < 0) {
+				end = word.length();
+			}
+			if (end > start) {
+				literals.add(word.substring(start, end));
+			}
+			start = end + 1;
+		}
+
+		boolean anchoredStart = word.charAt(0) != WILDCARD;
+		boolean anchoredEnd = word.charAt(word.length() - 1) != WILDCARD;
+		return new SearchPattern(literals.toArray(new String[literals.size()]), anchoredStart, anchoredEnd);
+	}
+
+	private SearchPattern(String[] literals, boolean anchoredStart, boolean anchoredEnd) {
+		this.literals = literals;
+		this.anchoredStart = anchoredStart;
+		this.anchoredEnd = anchoredEnd;
+	}
+
+	/**
+	 * @return the chars between the wildcards, in order. A pattern of only wildcards has none and matches every word.
+	 */
+	public String[] getLiterals() {
+		return literals;
+	}
+
+	/**
+	 * @return true if one of the space separated words of the string matches
+	 */
+	public boolean matchesAnyWord(String string) {
+		int start = 0;
+		while (start <= string.length()) {
+			int end = string.indexOf(' ', start);
+			if (end < 0) {
+				end = string.length();
+			}
+			if (end > start && matchesWord(string, start, end)) {
+				return true;
+			}
+			start = end + 1;
+		}
+		return false;
+	}
+
+	/**
+	 * Matches the literals at their leftmost positions, which finds a match whenever there is one
+	 * because the wildcards between them match anything.
+	 */
+	private boolean matchesWord(String string, int start, int end) {
+		int position = start;
+		int limit = end;
+		int first = 0;
+		int last = literals.length;
+
+		if (anchoredStart && first < last) {
+			String literal = literals[first++];
+			if (position + literal.length() > limit || !string.startsWith(literal, position)) {
+				return false;
+			}
+			position += literal.length();
+			if (anchoredEnd && first == last) {
+				// a single literal anchored on both sides is the whole word
+				return position == end;
+			}
+		}
+
+		if (anchoredEnd && first < last) {
+			String literal = literals[--last];
+			int literalStart = limit - literal.length();
+			if (literalStart < position || !string.startsWith(literal, literalStart)) {
+				return false;
+			}
+			limit = literalStart;
+		}
+
+		for (int i = first; i < last; i++) {
+			String literal = literals[i];
+			int found = string.indexOf(literal, position);
+			if (found < 0 || found + literal.length() > limit) {
+				return false;
+			}
+			position = found + literal.length();
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if every word matching this pattern contains the given word
+	 */
+	public boolean requires(String word) {
+		for (String literal : literals) {
+			if (literal.contains(word)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if every word matching the other pattern also matches this one,
+	 * because each of its literals is found within the other pattern's literal in the same place.
+	 */
+	public boolean isNarrowedBy(SearchPattern other) {
+		if (anchoredStart != other.anchoredStart || anchoredEnd != other.anchoredEnd || literals.length != other.literals.length) {
+			return false;
+		}
+		for (int i = 0; i < literals.length; i++) {
+			String literal = literals[i];
+			String otherLiteral = other.literals[i];
+			boolean first = anchoredStart && i == 0;
+			boolean last = anchoredEnd && i == literals.length - 1;
+			boolean narrowed;
+			if (first && last) {
+				narrowed = otherLiteral.equals(literal);
+			} else if (first) {
+				narrowed = otherLiteral.startsWith(literal);
+			} else if (last) {
+				narrowed = otherLiteral.endsWith(literal);
+			} else {
+				narrowed = otherLiteral.contains(literal);
+			}
+			if (!narrowed) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,41 @@
+package mezz.jei.search;
+
+/**
+ * The size of a search tree, see {@link ISearchTree#getStats()}.
+ * A suffix array has no edges, its nodes are its sorted suffixes.
+ */
+public class SearchTreeStats {
+	private final int nodeCount;
+	private final int edgeCount;
+	private final long payloadCount;
+	private final long memoryFootprint;
+
+	public SearchTreeStats(int nodeCount, int edgeCount, long payloadCount, long memoryFootprint) {
+		this.nodeCount = nodeCount;
+		this.edgeCount = edgeCount;
+		this.payloadCount = payloadCount;
+		this.memoryFootprint = memoryFootprint;
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	public int getEdgeCount() {
+		return edgeCount;
+	}
+
+	/**
+	 * @return the number of indexes stored by the tree, an index put under several keys is counted more than once
+	 */
+	public long getPayloadCount() {
+		return payloadCount;
+	}
+
+	/**
+	 * @return an estimate of the memory used by the tree, in bytes
+	 */
+	public long getMemoryFootprint() {
+		return memoryFootprint;
+	}
+}
@@ -0,0 +1,189 @@
+package mezz.jei.search;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+/**
+ * The tokens that are put into one search tree, with the indexes each token was put with.
+ * Search trees are filled from these, so they can be saved to the {@link SearchIndexCache}
+ * and loaded again without getting the search strings of every element.
+ */
+public class TokenPostings {
+	/**
+	 * Token ids by token, only kept while tokens are being put.
+	 */
+	@Nullable
+	private final TObjectIntHashMap<String> tokenIds;
+	private final List<String> tokens;
+	/**
+	 * The indexes each token was put with, in increasing order.
+	 */
+	private int[][] postings;
+	private int[] postingCounts;
+	/**
+	 * The index of the last item that was put
+	 */
+	private int last = 0;
+
+	public TokenPostings() {
+		this.tokenIds = new TObjectIntHashMap<String>(64, 0.5f, -1);
+		this.tokens = new ArrayList<String>();
+		this.postings = new int[64][];
+		this.postingCounts = new int[64];
+	}
+
+	/**
+	 * Creates token postings that were read from the cache, they can't be changed.
+	 */
+	TokenPostings(List<String> tokens, int[][] postings) {
+		this.tokenIds = null;
+		this.tokens = tokens;
+		this.postings = postings;
+		this.postingCounts = new int[postings.length];
+		for (int tokenId = 0; tokenId < postings.length; tokenId++) {
+			int[] tokenPostings = postings[tokenId];
+			postingCounts[tokenId] = tokenPostings.length;
+			if (tokenPostings.length > 0) {
+				last = Math.max(last, tokenPostings[tokenPostings.length - 1]);
+			}
+		}
+	}
+
+	/**
+	 * Adds the specified index under the given token.
+	 * Indexes must be put in non-decreasing order.
+	 */
+	public void put(String token, int index) throws IllegalStateException {
+		Preconditions.checkState(tokenIds != null, "Token postings that were read from the cache can't be changed.");
+		if (index < last) {
+			throw new IllegalStateException("The input index must not be less than any of the previously inserted ones. Got " + index + ", expected at least " + last);
+		} else {
+			last = index;
+		}
+
+		int tokenId = tokenIds.get(token);
+		if (tokenId < 0) {
+			tokenId = tokens.size();
+			if (tokenId == postings.length) {
+				postings = Arrays.copyOf(postings, tokenId * 2);
+				postingCounts = Arrays.copyOf(postingCounts, tokenId * 2);
+			}
+			tokens.add(token);
+			tokenIds.put(token, tokenId);
+			postings[tokenId] = new int[1];
+		}
+
+		int[] tokenPostings = postings[tokenId];
+		int count = postingCounts[tokenId];
+		if (count > 0 && tokenPostings[count - 1] == index) {
+			return;
+		}
+		if (count == tokenPostings.length) {
+			tokenPostings = postings[tokenId] = Arrays.copyOf(tokenPostings, count * 2);
+		}
+		tokenPostings[count] = index;
+		postingCounts[tokenId] = count + 1;
+	}
+
+	/**
+	 * Puts every token into the tree in index order, then freezes the tree.
+	 * A {@link TokenSearchTree} uses these tokens as its dictionary instead, so they must not be put afterwards.
+	 */
+	public void fill(ISearchTree tree) {
+		if (tree instanceof TokenSearchTree) {
+			((TokenSearchTree) tree).fill(this);
+			return;
+		}
+
+		int tokenCount = tokens.size();
+
+		// counting sort of the tokens by the indexes they were put with
+		int[] indexStarts = new int[last + 2];
+		for (int tokenId = 0; tokenId < tokenCount; tokenId++) {
+			int[] tokenPostings = postings[tokenId];
+			for (int i = 0; i < postingCounts[tokenId]; i++) {
+				indexStarts[tokenPostings[i] + 1]++;
+			}
+		}
+		for (int index = 1; index < indexStarts.length; index++) {
+			indexStarts[index] += indexStarts[index - 1];
+		}
+		int[] tokensByIndex = new int[indexStarts[last + 1]];
+		int[] next = Arrays.copyOf(indexStarts, last + 1);
+		for (int tokenId = 0; tokenId < tokenCount; tokenId++) {
+			int[] tokenPostings = postings[tokenId];
+			for (int i = 0; i < postingCounts[tokenId]; i++) {
+				tokensByIndex[next[tokenPostings[i]]++] = tokenId;
+			}
+		}
+
+		for (int index = 0; index <= last; index++) {
+			for (int i = indexStarts[index]; i < indexStarts[index + 1]; i++) {
+				String token = tokens.get(tokensByIndex[i]);
+				tree.put(token, index);
+			}
+		}
+		tree.freeze();
+	}
+
+	int getTokenCount() {
+		return tokens.size();
+	}
+
+	/**
+	 * @return the id of the token, or -1 if it was never put
+	 */
+	int getTokenId(String token) {
+		Preconditions.checkState(tokenIds != null, "Token postings that were read from the cache don't have token ids.");
+		return tokenIds.get(token);
+	}
+
+	String getToken(int tokenId) {
+		return tokens.get(tokenId);
+	}
+
+	int getPostingCount(int tokenId) {
+		return postingCounts[tokenId];
+	}
+
+	long getTotalPostingCount() {
+		long count = 0;
+		for (int tokenId = 0; tokenId < tokens.size(); tokenId++) {
+			count += postingCounts[tokenId];
+		}
+		return count;
+	}
+
+	/**
+	 * @return the postings of the token, only the first {@link #getPostingCount(int)} are used.
+	 */
+	int[] getPostings(int tokenId) {
+		return postings[tokenId];
+	}
+
+	/**
+	 * @return an estimate of the memory used by the tokens and their postings, in bytes
+	 */
+	long getMemoryFootprint() {
+		int tokenCount = tokens.size();
+		long size = MemoryFootprint.object(5 * MemoryFootprint.REFERENCE + MemoryFootprint.INT) +
+				MemoryFootprint.object(MemoryFootprint.REFERENCE + MemoryFootprint.INT) +
+				MemoryFootprint.array(tokenCount, MemoryFootprint.REFERENCE) +
+				MemoryFootprint.array(postings.length, MemoryFootprint.REFERENCE) +
+				MemoryFootprint.array(postingCounts.length, MemoryFootprint.INT);
+		for (int tokenId = 0; tokenId < tokenCount; tokenId++) {
+			size += MemoryFootprint.string(tokens.get(tokenId));
+			size += MemoryFootprint.array(postings[tokenId].length, MemoryFootprint.INT);
+		}
+		if (tokenIds != null) {
+			// the token map is half full, with a reference and an int per slot
+			size += MemoryFootprint.array(tokenCount * 2, MemoryFootprint.REFERENCE + MemoryFootprint.INT);
+		}
+		return size;
+	}
+}
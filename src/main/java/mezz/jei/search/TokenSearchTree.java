@@ -0,0 +1,158 @@
+package mezz.jei.search;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import gnu.trove.iterator.TIntIterator;
+
+/**
+ * A search tree over a token dictionary.
+ * <p>
+ * Common words like "block" and "ingot" are put with thousands of indexes, and each put walks the tree's suffix links.
+ * Instead, each distinct token is put into the underlying tree only once, under its token id,
+ * and the indexes of each token are kept in its postings.
+ * Searching finds the ids of all tokens containing the word, then adds their postings to the results.
+ * <p>
+ * The tree is filled from the {@link TokenPostings} that were built for it, which it shares instead of copying.
+ * Those are never changed, keys that are put afterwards get their own postings and token ids after the filled ones.
+ */
+public class TokenSearchTree implements ISearchTree {
+	/**
+	 * The search planner estimates each word's count right before searching it,
+	 * so the token ids of the last few words are kept to search the token tree only once per word.
+	 */
+	private static final int TOKEN_IDS_CACHE_SIZE = 16;
+
+	private final ISearchTree tokenTree;
+	@Nullable
+	private TokenPostings filledTokens;
+	private final TokenPostings addedTokens = new TokenPostings();
+	private final Cache<String, IntBitmap> tokenIdsCache = CacheBuilder.newBuilder()
+			.maximumSize(TOKEN_IDS_CACHE_SIZE)
+			.build();
+
+	/**
+	 * @param tokenTree an empty tree, which will be filled with token ids.
+	 */
+	public TokenSearchTree(ISearchTree tokenTree) {
+		this.tokenTree = tokenTree;
+	}
+
+	/**
+	 * Puts every token into the token tree under its token id, then freezes it.
+	 * The tokens are used as this tree's dictionary and must not be changed afterwards.
+	 */
+	public void fill(TokenPostings tokens) {
+		Preconditions.checkState(filledTokens == null && addedTokens.getTokenCount() == 0, "Only an empty token search tree can be filled.");
+		this.filledTokens = tokens;
+		for (int tokenId = 0; tokenId < tokens.getTokenCount(); tokenId++) {
+			tokenTree.put(tokens.getToken(tokenId), tokenId);
+		}
+		tokenTree.freeze();
+		tokenIdsCache.invalidateAll();
+	}
+
+	@Override
+	public void put(String key, int index) throws IllegalStateException {
+		int addedTokenId = addedTokens.getTokenCount();
+		addedTokens.put(key, index);
+		if (addedTokens.getTokenCount() > addedTokenId) {
+			// a token that is also in the filled tokens is found under both ids, their postings are merged by the results
+			tokenTree.put(key, getFilledTokenCount() + addedTokenId);
+			tokenIdsCache.invalidateAll();
+		}
+	}
+
+	@Override
+	public void search(String word, IntBitmap results) {
+		TIntIterator iterator = getTokenIds(word).iterator();
+		while (iterator.hasNext()) {
+			SearchCancellation.check();
+			int tokenId = iterator.next();
+			TokenPostings tokens = getTokens(tokenId);
+			int postingsTokenId = getPostingsTokenId(tokenId);
+			int[] postings = tokens.getPostings(postingsTokenId);
+			int count = tokens.getPostingCount(postingsTokenId);
+			for (int i = 0; i < count; i++) {
+				results.add(postings[i]);
+			}
+		}
+	}
+
+	/**
+	 * Sums the posting counts of the matching tokens, indexes put with several matching tokens are counted more than once.
+	 * The matching token ids are kept for the search that follows.
+	 */
+	@Override
+	public int estimateCount(String word) {
+		int count = 0;
+		TIntIterator iterator = getTokenIds(word).iterator();
+		while (iterator.hasNext()) {
+			int tokenId = iterator.next();
+			count += getTokens(tokenId).getPostingCount(getPostingsTokenId(tokenId));
+		}
+		return count;
+	}
+
+	private IntBitmap getTokenIds(String word) {
+		IntBitmap tokenIds = tokenIdsCache.getIfPresent(word);
+		if (tokenIds == null) {
+			tokenIds = new IntBitmap();
+			tokenTree.search(word, tokenIds);
+			tokenIdsCache.put(word, tokenIds);
+		}
+		return tokenIds;
+	}
+
+	private int getFilledTokenCount() {
+		return filledTokens == null ? 0 : filledTokens.getTokenCount();
+	}
+
+	private TokenPostings getTokens(int tokenId) {
+		if (filledTokens != null && tokenId < filledTokens.getTokenCount()) {
+			return filledTokens;
+		}
+		return addedTokens;
+	}
+
+	private int getPostingsTokenId(int tokenId) {
+		int filledTokenCount = getFilledTokenCount();
+		return tokenId < filledTokenCount ? tokenId : tokenId - filledTokenCount;
+	}
+
+	@Override
+	public void freeze() {
+		tokenTree.freeze();
+	}
+
+	@Override
+	public long getMemoryFootprint() {
+		long size = MemoryFootprint.object(4 * MemoryFootprint.REFERENCE) +
+				tokenTree.getMemoryFootprint() +
+				addedTokens.getMemoryFootprint();
+		if (filledTokens != null) {
+			size += filledTokens.getMemoryFootprint();
+		}
+		return size;
+	}
+
+	/**
+	 * The payload counts both the token ids in the tree and the indexes in the postings.
+	 */
+	@Override
+	public SearchTreeStats getStats() {
+		SearchTreeStats tokenTreeStats = tokenTree.getStats();
+		long postingCount = addedTokens.getTotalPostingCount();
+		if (filledTokens != null) {
+			postingCount += filledTokens.getTotalPostingCount();
+		}
+		return new SearchTreeStats(
+				tokenTreeStats.getNodeCount(),
+				tokenTreeStats.getEdgeCount(),
+				tokenTreeStats.getPayloadCount() + postingCount,
+				getMemoryFootprint()
+		);
+	}
+}
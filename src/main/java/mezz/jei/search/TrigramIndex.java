@@ -0,0 +1,187 @@
+package mezz.jei.search;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import gnu.trove.list.array.TIntArrayList;
+
+/**
+ * An index of words by their trigrams, for finding the words that are a few typos away from a search word.
+ * The search trees only find exact substrings, so "iorn" finds nothing while this finds "iron".
+ * <p>
+ * Each word is indexed under every three char sequence it starts with or contains, with padding at the start.
+ * The candidates for a search word are the words that share at least one trigram with it, and the candidates sharing
+ * the most trigrams are checked first. A candidate matches if one of its prefixes is within a bounded edit distance
+ * of the search word, counting swapped neighbouring chars as one edit.
+ * Checking stops when the time budget runs out, so a search word with many candidates can't stall the search.
+ */
+public class TrigramIndex {
+	private static final char PADDING = '\0';
+	/**
+	 * The time and whether the search was cancelled are checked after this many candidates.
+	 */
+	private static final int CANDIDATES_PER_TIME_CHECK = 64;
+
+	/**
+	 * The indexes each word was put with.
+	 */
+	private final TokenPostings words = new TokenPostings();
+	/**
+	 * The ids of the words containing each trigram.
+	 */
+	private final TokenPostings trigrams = new TokenPostings();
+
+	/**
+	 * Adds the specified index under the given word.
+	 * Indexes must be put in non-decreasing order.
+	 */
+	public void put(String word, int index) throws IllegalStateException {
+		int wordId = words.getTokenCount();
+		words.put(word, index);
+		if (words.getTokenCount() > wordId) {
+			for (String trigram : getTrigrams(word)) {
+				trigrams.put(trigram, wordId);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of edits a word of this length can be away from a search word, 0 for words too short to search.
+	 */
+	public static int getMaxEdits(int wordLength) {
+		if (wordLength < 3) {
+			return 0;
+		} else if (wordLength < 6) {
+			return 1;
+		} else {
+			return 2;
+		}
+	}
+
+	/**
+	 * Adds the indexes of all words that start with the given word, allowing for a few typos.
+	 *
+	 * @param timeBudgetNanos how long to check candidates for, the best candidates are checked first.
+	 */
+	public void search(String word, long timeBudgetNanos, IntBitmap results) {
+		int maxEdits = getMaxEdits(word.length());
+		if (maxEdits == 0) {
+			return;
+		}
+		long deadline = System.nanoTime() + timeBudgetNanos;
+
+		// count the trigrams each word shares with the search word
+		int[] sharedCounts = new int[words.getTokenCount()];
+		TIntArrayList candidates = new TIntArrayList();
+		List<String> wordTrigrams = getTrigrams(word);
+		for (String trigram : wordTrigrams) {
+			SearchCancellation.check();
+			int trigramId = trigrams.getTokenId(trigram);
+			if (trigramId >= 0) {
+				int[] wordIds = trigrams.getPostings(trigramId);
+				int count = trigrams.getPostingCount(trigramId);
+				for (int i = 0; i < count; i++) {
+					if (sharedCounts[wordIds[i]]++ == 0) {
+						candidates.add(wordIds[i]);
+					}
+				}
+			}
+		}
+
+		// counting sort of the candidates, most shared trigrams first
+		int maxShared = wordTrigrams.size();
+		int[] sharedStarts = new int[maxShared + 2];
+		for (int i = 0; i < candidates.size(); i++) {
+			sharedStarts[maxShared - sharedCounts[candidates.get(i)] + 1]++;
+		}
+		for (int i = 1; i < sharedStarts.length; i++) {
+			sharedStarts[i] += sharedStarts[i - 1];
+		}
+		int[] sortedCandidates = new int[candidates.size()];
+		for (int i = 0; i < candidates.size(); i++) {
+			int wordId = candidates.get(i);
+			sortedCandidates[sharedStarts[maxShared - sharedCounts[wordId]]++] = wordId;
+		}
+
+		for (int i = 0; i < sortedCandidates.length; i++) {
+			if (i % CANDIDATES_PER_TIME_CHECK == 0 && i > 0) {
+				SearchCancellation.check();
+				if (System.nanoTime() > deadline) {
+					break;
+				}
+			}
+			int wordId = sortedCandidates[i];
+			if (getPrefixDistance(word, words.getToken(wordId), maxEdits) <= maxEdits) {
+				int[] indexes = words.getPostings(wordId);
+				int count = words.getPostingCount(wordId);
+				for (int j = 0; j < count; j++) {
+					results.add(indexes[j]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the distinct trigrams of the word, padded at the start so that short words and first chars count too
+	 */
+	private static List<String> getTrigrams(String word) {
+		String padded = "" + PADDING + PADDING + word;
+		List<String> wordTrigrams = new ArrayList<String>(word.length());
+		for (int i = 0; i + 3 <= padded.length(); i++) {
+			String trigram = padded.substring(i, i + 3);
+			if (!wordTrigrams.contains(trigram)) {
+				wordTrigrams.add(trigram);
+			}
+		}
+		return wordTrigrams;
+	}
+
+	/**
+	 * The optimal string alignment distance between the search word and the closest prefix of the candidate:
+	 * the number of inserted, deleted or replaced chars and swapped neighbouring chars.
+	 *
+	 * @return the distance, or anything greater than maxEdits if it is greater
+	 */
+	static int getPrefixDistance(String word, String candidate, int maxEdits) {
+		int wordLength = word.length();
+		int prefixLength = Math.min(candidate.length(), wordLength + maxEdits);
+
+		int[] previousRow2 = new int[prefixLength + 1];
+		int[] previousRow = new int[prefixLength + 1];
+		int[] row = new int[prefixLength + 1];
+		for (int j = 0; j <= prefixLength; j++) {
+			previousRow[j] = j;
+		}
+
+		for (int i = 1; i <= wordLength; i++) {
+			char c = word.charAt(i - 1);
+			row[0] = i;
+			int rowMin = i;
+			for (int j = 1; j <= prefixLength; j++) {
+				char candidateChar = candidate.charAt(j - 1);
+				int distance = previousRow[j - 1] + (c == candidateChar ? 0 : 1);
+				distance = Math.min(distance, previousRow[j] + 1);
+				distance = Math.min(distance, row[j - 1] + 1);
+				if (i > 1 && j > 1 && c == candidate.charAt(j - 2) && word.charAt(i - 2) == candidateChar) {
+					distance = Math.min(distance, previousRow2[j - 2] + 1);
+				}
+				row[j] = distance;
+				rowMin = Math.min(rowMin, distance);
+			}
+			if (rowMin > maxEdits) {
+				return rowMin;
+			}
+
+			int[] swap = previousRow2;
+			previousRow2 = previousRow;
+			previousRow = row;
+			row = swap;
+		}
+
+		int distance = previousRow[0];
+		for (int j = 1; j <= prefixLength; j++) {
+			distance = Math.min(distance, previousRow[j]);
+		}
+		return distance;
+	}
+}
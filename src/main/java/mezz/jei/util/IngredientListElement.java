@@ -9,6 +9,7 @@ import mezz.jei.api.ingredients.IIngredientHelper;
 import mezz.jei.api.ingredients.IIngredientRenderer;
 import mezz.jei.config.Config;
 import mezz.jei.gui.ingredients.IIngredientListElement;
+import mezz.jei.search.SearchIndexCache;
 import net.minecraft.client.resources.I18n;
 import net.minecraft.creativetab.CreativeTabs;
 import net.minecraft.item.Item;
@@ -84,6 +85,21 @@ public class IngredientListElement<V> implements IIngredientListElement<V> {
 		}
 	}
 
+	/**
+	 * Creates an element with the search strings that were saved in the search index cache.
+	 */
+	public IngredientListElement(V ingredient, IIngredientHelper<V> ingredientHelper, SearchIndexCache.CachedElement cachedElement) {
+		this.ingredient = ingredient;
+		this.ingredientHelper = ingredientHelper;
+		this.displayName = cachedElement.getDisplayName();
+		this.modName = cachedElement.getModName();
+		this.modId = cachedElement.getModId();
+		this.tooltipString = cachedElement.getTooltipString();
+		this.oreDictString = cachedElement.getOreDictString();
+		this.creativeTabsString = cachedElement.getCreativeTabsString();
+		this.colorString = cachedElement.getColorString();
+	}
+
 	@Override
 	public final V getIngredient() {
 		return ingredient;
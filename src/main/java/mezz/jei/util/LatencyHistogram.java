@@ -0,0 +1,66 @@
+package mezz.jei.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in buckets of powers of two microseconds, so percentiles are known to within a factor of two.
+ * Latencies can be recorded and read from any thread.
+ */
+public class LatencyHistogram {
+	/**
+	 * Bucket i counts the latencies from 2^(i-1) up to 2^i microseconds, the last bucket counts all longer ones.
+	 */
+	private static final int BUCKET_COUNT = 28;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	public void record(long nanos) {
+		long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+		int bucket = Math.min(Long.SIZE - Long.numberOfLeadingZeros(micros), BUCKET_COUNT - 1);
+		buckets.incrementAndGet(bucket);
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+
+		long max = maxNanos.get();
+		while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+			max = maxNanos.get();
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getMeanMicros() {
+		long count = this.count.get();
+		return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalNanos.get() / count);
+	}
+
+	public long getTotalMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(totalNanos.get());
+	}
+
+	public long getMaxMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(maxNanos.get());
+	}
+
+	/**
+	 * @return the upper bound of the bucket that has the given fraction of all latencies at or below it, in microseconds
+	 */
+	public long getPercentileMicros(double fraction) {
+		long target = (long) Math.ceil(count.get() * fraction);
+		long cumulative = 0;
+		for (int bucket = 0; bucket < BUCKET_COUNT - 1; bucket++) {
+			cumulative += buckets.get(bucket);
+			if (cumulative >= target) {
+				return Math.min(1L << bucket, getMaxMicros());
+			}
+		}
+		return getMaxMicros();
+	}
+}
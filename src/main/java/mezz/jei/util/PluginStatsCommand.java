@@ -0,0 +1,77 @@
+package mezz.jei.util;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.google.common.cache.CacheStats;
+import mezz.jei.Internal;
+import mezz.jei.JeiRuntime;
+import mezz.jei.RecipeRegistry;
+import net.minecraft.client.Minecraft;
+import net.minecraft.command.CommandBase;
+import net.minecraft.command.CommandException;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.command.WrongUsageException;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.text.TextComponentString;
+import net.minecraft.util.text.TextComponentTranslation;
+
+/**
+ * A client command that prints how long each recipe registry plugin takes to look up recipes and the hit rate of the recipe lookup cache,
+ * or exports the plugin timings to a CSV file in the logs folder with "/jei_plugin_stats export".
+ */
+public class PluginStatsCommand extends CommandBase {
+	private static final String EXPORT_FILE_NAME = "jei-plugin-metrics.csv";
+
+	@Override
+	public String getName() {
+		return "jei_plugin_stats";
+	}
+
+	@Override
+	public String getUsage(ICommandSender sender) {
+		return "jei.command.plugin.stats.usage";
+	}
+
+	@Override
+	public int getRequiredPermissionLevel() {
+		return 0;
+	}
+
+	@Override
+	public boolean checkPermission(MinecraftServer server, ICommandSender sender) {
+		return true;
+	}
+
+	@Override
+	public void execute(MinecraftServer server, ICommandSender sender, String[] args) throws CommandException {
+		JeiRuntime runtime = Internal.getRuntime();
+		if (runtime == null) {
+			sender.sendMessage(new TextComponentTranslation("jei.command.search.stats.not.started"));
+			return;
+		}
+
+		RecipeRegistry recipeRegistry = runtime.getRecipeRegistry();
+		RecipePluginMetrics pluginMetrics = recipeRegistry.getPluginMetrics();
+		if (args.length == 0) {
+			for (String line : pluginMetrics.getSummary()) {
+				sender.sendMessage(new TextComponentString(line));
+			}
+
+			CacheStats lookupCacheStats = recipeRegistry.getLookupCacheStats();
+			sender.sendMessage(new TextComponentString(String.format("recipe lookup cache: %d hits, %d misses, %.1f%% hit rate, %d evictions", lookupCacheStats.hitCount(), lookupCacheStats.missCount(), lookupCacheStats.hitRate() * 100, lookupCacheStats.evictionCount())));
+		} else if (args.length == 1 && "export".equals(args[0])) {
+			File logDir = new File(Minecraft.getMinecraft().mcDataDir, "logs");
+			File file = new File(logDir, EXPORT_FILE_NAME);
+			try {
+				pluginMetrics.writeCsv(file);
+				sender.sendMessage(new TextComponentTranslation("jei.command.plugin.stats.exported", file.getPath()));
+			} catch (IOException e) {
+				Log.error("Failed to write the recipe plugin metrics to {}", file, e);
+				sender.sendMessage(new TextComponentTranslation("jei.command.plugin.stats.export.failed", file.getPath()));
+			}
+		} else {
+			throw new WrongUsageException(getUsage(sender));
+		}
+	}
+}
@@ -1,16 +1,18 @@
 package mezz.jei.util;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Ordering;
-import com.google.common.collect.Table;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
 import mezz.jei.api.ingredients.IIngredientHelper;
 import mezz.jei.api.ingredients.IIngredientRegistry;
 import mezz.jei.api.recipe.IRecipeCategory;
@@ -18,10 +20,62 @@ import mezz.jei.api.recipe.IRecipeWrapper;
 
 /**
  * A RecipeMap efficiently links IRecipeWrappers, IRecipeCategory, and Ingredients.
+ * <p>
+ * Ingredient uids and recipe category uids are numbered once when they are first added, and so are the recipes.
+ * The recipes of each category and ingredient are a posting list of recipe numbers,
+ * so the map holds int arrays instead of a small list for every ingredient of every category,
+ * and a lookup hashes each of the ingredient's uids only once, to find its id.
+ * <p>
+ * Removing recipes leaves empty recipe numbers and empty posting lists behind.
+ * Once more than {@link #MAX_REMOVED_FRACTION} of either are empty, the map is compacted,
+ * so that adding and removing recipes again and again doesn't grow it.
+ * Ingredient uids and category uids keep their ids.
  */
 public class RecipeMap {
-	private final Table<IRecipeCategory, String, List<IRecipeWrapper>> recipeWrapperTable = HashBasedTable.create();
-	private final ArrayListMultimap<String, String> categoryUidMap = ArrayListMultimap.create();
+	private static final int NO_ID = -1;
+	private static final float MAX_REMOVED_FRACTION = 0.25f;
+
+	/**
+	 * Ingredient uid ids by uid, and the uids by id.
+	 */
+	private final TObjectIntHashMap<String> uidIds = new TObjectIntHashMap<String>(64, 0.5f, NO_ID);
+	private final List<String> uids = new ArrayList<String>();
+	/**
+	 * The ids of the recipe categories of each ingredient uid, by uid id.
+	 */
+	private int[][] categoryIdsByUid = new int[64][];
+
+	/**
+	 * Recipe category ids by category uid, and the category uids by id.
+	 */
+	private final TObjectIntHashMap<String> categoryIds = new TObjectIntHashMap<String>(16, 0.5f, NO_ID);
+	private final List<String> categoryUids = new ArrayList<String>();
+
+	/**
+	 * The recipes by their number, removed recipes are null.
+	 * A removed recipe can still be in the posting lists of ingredients it didn't have when it was removed, lookups skip it.
+	 */
+	private final List<IRecipeWrapper> recipeWrappers = new ArrayList<IRecipeWrapper>();
+	private int removedRecipeCount = 0;
+
+	/**
+	 * Posting list ids by {@link #getPostingKey(int, int)}.
+	 */
+	private final TLongIntHashMap postingIds = new TLongIntHashMap(64, 0.5f, NO_ID, NO_ID);
+	/**
+	 * The category id and ingredient uid id of each posting list.
+	 */
+	private int[] postingCategoryIds = new int[64];
+	private int[] postingUidIds = new int[64];
+	/**
+	 * The numbers of the recipes in each posting list, in the order they were added.
+	 * Only the first {@link #postingSizes} of each are used.
+	 */
+	private int[][] postings = new int[64][];
+	private int[] postingSizes = new int[64];
+	private int postingCount = 0;
+	private int emptyPostingCount = 0;
+
 	private final Ordering<String> recipeCategoryOrdering;
 	private final IIngredientRegistry ingredientRegistry;
 
@@ -36,7 +90,15 @@ public class RecipeMap {
 		Set<String> recipeCategories = new HashSet<String>();
 
 		for (String key : IngredientUtil.getUniqueIdsWithWildcard(ingredientHelper, ingredient)) {
-			recipeCategories.addAll(categoryUidMap.get(key));
+			int uidId = uidIds.get(key);
+			if (uidId != NO_ID) {
+				int[] uidCategoryIds = categoryIdsByUid[uidId];
+				if (uidCategoryIds != null) {
+					for (int categoryId : uidCategoryIds) {
+						recipeCategories.add(categoryUids.get(categoryId));
+					}
+				}
+			}
 		}
 
 		return recipeCategoryOrdering.immutableSortedCopy(recipeCategories);
@@ -46,43 +108,73 @@ public class RecipeMap {
 		IIngredientHelper<V> ingredientHelper = ingredientRegistry.getIngredientHelper(ingredient);
 
 		String key = ingredientHelper.getUniqueId(ingredient);
-		List<String> recipeCategories = categoryUidMap.get(key);
-		String recipeCategoryUid = recipeCategory.getUid();
-		if (!recipeCategories.contains(recipeCategoryUid)) {
-			recipeCategories.add(recipeCategoryUid);
-		}
+		addCategoryToUid(getOrCreateUidId(key), getOrCreateCategoryId(recipeCategory.getUid()));
 	}
 
 	public <T extends IRecipeWrapper, V> ImmutableList<T> getRecipeWrappers(IRecipeCategory<T> recipeCategory, V ingredient) {
-		IIngredientHelper<V> ingredientHelper = ingredientRegistry.getIngredientHelper(ingredient);
+		int categoryId = categoryIds.get(recipeCategory.getUid());
+		if (categoryId == NO_ID) {
+			return ImmutableList.of();
+		}
 
-		//noinspection unchecked
-		Map<String, List<T>> recipesForType = (Map<String, List<T>>) (Object) recipeWrapperTable.row(recipeCategory);
+		IIngredientHelper<V> ingredientHelper = ingredientRegistry.getIngredientHelper(ingredient);
 
 		ImmutableList.Builder<T> listBuilder = ImmutableList.builder();
 		for (String key : IngredientUtil.getUniqueIdsWithWildcard(ingredientHelper, ingredient)) {
-			List<T> recipes = recipesForType.get(key);
-			if (recipes != null) {
-				listBuilder.addAll(recipes);
+			int uidId = uidIds.get(key);
+			if (uidId != NO_ID && hasCategory(uidId, categoryId)) {
+				int postingId = postingIds.get(getPostingKey(categoryId, uidId));
+				if (postingId != NO_ID) {
+					int[] posting = postings[postingId];
+					for (int i = 0; i < postingSizes[postingId]; i++) {
+						IRecipeWrapper recipeWrapper = recipeWrappers.get(posting[i]);
+						if (recipeWrapper != null) {
+							//noinspection unchecked
+							listBuilder.add((T) recipeWrapper);
+						}
+					}
+				}
 			}
 		}
 		return listBuilder.build();
 	}
 
 	public <T extends IRecipeWrapper> void addRecipe(T recipeWrapper, IRecipeCategory<T> recipeCategory, Map<Class, List> ingredientsByType) {
+		addRecipe(recipeWrapper, recipeCategory, getUniqueIds(ingredientsByType));
+	}
+
+	/**
+	 * Adds a recipe under the unique ids of its ingredients, from {@link #getUniqueIds(Map)}.
+	 */
+	public <T extends IRecipeWrapper> void addRecipe(T recipeWrapper, IRecipeCategory<T> recipeCategory, List<String> uniqueIds) {
+		int categoryId = getOrCreateCategoryId(recipeCategory.getUid());
+		int recipeNumber = recipeWrappers.size();
+		recipeWrappers.add(recipeWrapper);
+
+		for (String key : uniqueIds) {
+			int uidId = getOrCreateUidId(key);
+			addToPosting(getOrCreatePostingId(categoryId, uidId), recipeNumber);
+			addCategoryToUid(uidId, categoryId);
+		}
+	}
+
+	/**
+	 * Returns the unique ids that a recipe with these ingredients is added under.
+	 * This doesn't change the map, so it can be called from any thread if the ingredient helpers allow it.
+	 */
+	public List<String> getUniqueIds(Map<Class, List> ingredientsByType) {
+		List<String> uniqueIds = new ArrayList<String>();
 		for (Map.Entry<Class, List> entry : ingredientsByType.entrySet()) {
 			if (entry != null) {
-				addRecipe(recipeWrapper, recipeCategory, entry.getKey(), entry.getValue());
+				addUniqueIds(entry.getKey(), entry.getValue(), uniqueIds);
 			}
 		}
+		return uniqueIds;
 	}
 
-	private <T extends IRecipeWrapper, V> void addRecipe(T recipeWrapper, IRecipeCategory<T> recipeCategory, Class<V> ingredientClass, List<V> ingredients) {
+	private <V> void addUniqueIds(Class<V> ingredientClass, List<V> ingredients, List<String> uniqueIdsList) {
 		IIngredientHelper<V> ingredientHelper = ingredientRegistry.getIngredientHelper(ingredientClass);
 
-		//noinspection unchecked
-		Map<String, List<T>> recipesWrappersForType = (Map<String, List<T>>) (Object) recipeWrapperTable.row(recipeCategory);
-
 		Set<String> uniqueIds = new HashSet<String>();
 
 		List<V> expandedIngredients = ingredientHelper.expandSubtypes(ingredients);
@@ -93,38 +185,36 @@ public class RecipeMap {
 			}
 
 			String key = ingredientHelper.getUniqueId(ingredient);
-			if (uniqueIds.contains(key)) {
-				continue;
-			} else {
+			if (!uniqueIds.contains(key)) {
 				uniqueIds.add(key);
+				uniqueIdsList.add(key);
 			}
-
-			List<T> recipeWrappers = recipesWrappersForType.get(key);
-			if (recipeWrappers == null) {
-				recipeWrappers = Lists.newArrayList();
-				recipesWrappersForType.put(key, recipeWrappers);
-			}
-
-			recipeWrappers.add(recipeWrapper);
-
-			addRecipeCategory(recipeCategory, ingredient);
 		}
 	}
 
 	public <T extends IRecipeWrapper> void removeRecipe(T recipeWrapper, IRecipeCategory<T> recipeCategory, Map<Class, List> ingredientsByType) {
+		int categoryId = categoryIds.get(recipeCategory.getUid());
+		if (categoryId == NO_ID) {
+			return;
+		}
+		// the recipes are only cleared once they are removed from every posting list, they are found by equality
+		TIntArrayList removedRecipeNumbers = new TIntArrayList();
 		for (Map.Entry<Class, List> entry : ingredientsByType.entrySet()) {
 			if (entry != null) {
-				removeRecipe(recipeWrapper, recipeCategory, entry.getKey(), entry.getValue());
+				removeRecipe(recipeWrapper, categoryId, entry.getKey(), entry.getValue(), removedRecipeNumbers);
+			}
+		}
+		for (int i = 0; i < removedRecipeNumbers.size(); i++) {
+			if (recipeWrappers.set(removedRecipeNumbers.get(i), null) != null) {
+				removedRecipeCount++;
 			}
 		}
+		compactIfSparse();
 	}
 
-	private <T extends IRecipeWrapper, V> void removeRecipe(T recipeWrapper, IRecipeCategory<T> recipeCategory, Class<V> ingredientClass, List<V> ingredients) {
+	private <V> void removeRecipe(IRecipeWrapper recipeWrapper, int categoryId, Class<V> ingredientClass, List<V> ingredients, TIntArrayList removedRecipeNumbers) {
 		IIngredientHelper<V> ingredientHelper = ingredientRegistry.getIngredientHelper(ingredientClass);
 
-		//noinspection unchecked
-		Map<String, List<T>> recipesWrappersForType = (Map<String, List<T>>) (Object) recipeWrapperTable.row(recipeCategory);
-
 		ingredients = ingredientHelper.expandSubtypes(ingredients);
 
 		for (V ingredient : ingredients) {
@@ -134,15 +224,248 @@ public class RecipeMap {
 
 			List<String> uniqueIdsWithWildcard = IngredientUtil.getUniqueIdsWithWildcard(ingredientHelper, ingredient);
 			for (String key : uniqueIdsWithWildcard) {
-				List<T> recipeWrappers = recipesWrappersForType.get(key);
-				if (recipeWrappers != null) {
-					recipeWrappers.remove(recipeWrapper);
-					if (recipeWrappers.isEmpty()) {
-						categoryUidMap.remove(key, recipeCategory.getUid());
-						recipesWrappersForType.remove(key);
+				int uidId = uidIds.get(key);
+				if (uidId == NO_ID) {
+					continue;
+				}
+				long postingKey = getPostingKey(categoryId, uidId);
+				int postingId = postingIds.get(postingKey);
+				if (postingId != NO_ID) {
+					int recipeNumber = removeFromPosting(postingId, recipeWrapper);
+					if (recipeNumber != NO_ID) {
+						removedRecipeNumbers.add(recipeNumber);
+					}
+					if (postingSizes[postingId] == 0) {
+						removeEmptyPosting(postingId);
 					}
 				}
 			}
 		}
 	}
+
+	/**
+	 * Removes all the recipes in the set at once.
+	 * Instead of finding the ingredients of each recipe, every posting list is filtered once,
+	 * so this is much faster than {@link #removeRecipe(IRecipeWrapper, IRecipeCategory, Map)} for many recipes.
+	 */
+	public void removeRecipes(Set<IRecipeWrapper> removedRecipeWrappers) {
+		BitSet removedRecipeNumbers = new BitSet(recipeWrappers.size());
+		for (int recipeNumber = 0; recipeNumber < recipeWrappers.size(); recipeNumber++) {
+			IRecipeWrapper recipeWrapper = recipeWrappers.get(recipeNumber);
+			if (recipeWrapper != null && removedRecipeWrappers.contains(recipeWrapper)) {
+				removedRecipeNumbers.set(recipeNumber);
+				recipeWrappers.set(recipeNumber, null);
+				removedRecipeCount++;
+			}
+		}
+		if (removedRecipeNumbers.isEmpty()) {
+			return;
+		}
+
+		for (int postingId = 0; postingId < postingCount; postingId++) {
+			int[] posting = postings[postingId];
+			int size = postingSizes[postingId];
+			int keptSize = 0;
+			for (int i = 0; i < size; i++) {
+				int recipeNumber = posting[i];
+				if (!removedRecipeNumbers.get(recipeNumber)) {
+					posting[keptSize++] = recipeNumber;
+				}
+			}
+			if (keptSize < size) {
+				postingSizes[postingId] = keptSize;
+				if (keptSize == 0) {
+					removeEmptyPosting(postingId);
+				}
+			}
+		}
+		compactIfSparse();
+	}
+
+	private void compactIfSparse() {
+		if (removedRecipeCount > recipeWrappers.size() * MAX_REMOVED_FRACTION || emptyPostingCount > postingCount * MAX_REMOVED_FRACTION) {
+			compact();
+		}
+	}
+
+	/**
+	 * Renumbers the remaining recipes and posting lists, dropping the removed recipes and the empty posting lists.
+	 * The recipes keep their order, so lookups list them in the same order as before.
+	 */
+	private void compact() {
+		int[] newRecipeNumbers = new int[recipeWrappers.size()];
+		List<IRecipeWrapper> keptRecipeWrappers = new ArrayList<IRecipeWrapper>(recipeWrappers.size() - removedRecipeCount);
+		for (int recipeNumber = 0; recipeNumber < recipeWrappers.size(); recipeNumber++) {
+			IRecipeWrapper recipeWrapper = recipeWrappers.get(recipeNumber);
+			if (recipeWrapper == null) {
+				newRecipeNumbers[recipeNumber] = NO_ID;
+			} else {
+				newRecipeNumbers[recipeNumber] = keptRecipeWrappers.size();
+				keptRecipeWrappers.add(recipeWrapper);
+			}
+		}
+		recipeWrappers.clear();
+		recipeWrappers.addAll(keptRecipeWrappers);
+
+		postingIds.clear();
+		int keptPostingCount = 0;
+		for (int postingId = 0; postingId < postingCount; postingId++) {
+			int[] posting = postings[postingId];
+			int size = postingSizes[postingId];
+			int categoryId = postingCategoryIds[postingId];
+			int uidId = postingUidIds[postingId];
+			int keptSize = 0;
+			for (int i = 0; i < size; i++) {
+				int recipeNumber = newRecipeNumbers[posting[i]];
+				if (recipeNumber != NO_ID) {
+					posting[keptSize++] = recipeNumber;
+				}
+			}
+			if (keptSize > 0) {
+				int keptPostingId = keptPostingCount++;
+				postings[keptPostingId] = posting;
+				postingSizes[keptPostingId] = keptSize;
+				postingCategoryIds[keptPostingId] = categoryId;
+				postingUidIds[keptPostingId] = uidId;
+				postingIds.put(getPostingKey(categoryId, uidId), keptPostingId);
+			} else if (size > 0) {
+				// it only had recipes that were removed while they had other ingredients
+				removeCategoryFromUid(uidId, categoryId);
+			}
+		}
+		for (int postingId = keptPostingCount; postingId < postingCount; postingId++) {
+			postings[postingId] = null;
+			postingSizes[postingId] = 0;
+		}
+		postingCount = keptPostingCount;
+
+		removedRecipeCount = 0;
+		emptyPostingCount = 0;
+	}
+
+	private int getOrCreateUidId(String uid) {
+		int uidId = uidIds.get(uid);
+		if (uidId == NO_ID) {
+			uidId = uids.size();
+			uids.add(uid);
+			uidIds.put(uid, uidId);
+			if (uidId == categoryIdsByUid.length) {
+				categoryIdsByUid = Arrays.copyOf(categoryIdsByUid, uidId * 2);
+			}
+		}
+		return uidId;
+	}
+
+	private int getOrCreateCategoryId(String recipeCategoryUid) {
+		int categoryId = categoryIds.get(recipeCategoryUid);
+		if (categoryId == NO_ID) {
+			categoryId = categoryUids.size();
+			categoryUids.add(recipeCategoryUid);
+			categoryIds.put(recipeCategoryUid, categoryId);
+		}
+		return categoryId;
+	}
+
+	/**
+	 * Ingredients have few categories, so their category ids are kept in arrays of exactly the right size.
+	 */
+	private void addCategoryToUid(int uidId, int categoryId) {
+		int[] uidCategoryIds = categoryIdsByUid[uidId];
+		if (uidCategoryIds == null) {
+			categoryIdsByUid[uidId] = new int[]{categoryId};
+		} else if (!hasCategory(uidId, categoryId)) {
+			uidCategoryIds = Arrays.copyOf(uidCategoryIds, uidCategoryIds.length + 1);
+			uidCategoryIds[uidCategoryIds.length - 1] = categoryId;
+			categoryIdsByUid[uidId] = uidCategoryIds;
+		}
+	}
+
+	private boolean hasCategory(int uidId, int categoryId) {
+		int[] uidCategoryIds = categoryIdsByUid[uidId];
+		if (uidCategoryIds != null) {
+			for (int uidCategoryId : uidCategoryIds) {
+				if (uidCategoryId == categoryId) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private void removeCategoryFromUid(int uidId, int categoryId) {
+		int[] uidCategoryIds = categoryIdsByUid[uidId];
+		if (uidCategoryIds != null) {
+			for (int i = 0; i < uidCategoryIds.length; i++) {
+				if (uidCategoryIds[i] == categoryId) {
+					int[] remaining = new int[uidCategoryIds.length - 1];
+					System.arraycopy(uidCategoryIds, 0, remaining, 0, i);
+					System.arraycopy(uidCategoryIds, i + 1, remaining, i, remaining.length - i);
+					categoryIdsByUid[uidId] = (remaining.length == 0) ? null : remaining;
+					return;
+				}
+			}
+		}
+	}
+
+	private static long getPostingKey(int categoryId, int uidId) {
+		return ((long) categoryId << 32) | uidId;
+	}
+
+	private int getOrCreatePostingId(int categoryId, int uidId) {
+		long postingKey = getPostingKey(categoryId, uidId);
+		int postingId = postingIds.get(postingKey);
+		if (postingId == NO_ID) {
+			postingId = postingCount++;
+			if (postingId == postings.length) {
+				int capacity = postingId * 2;
+				postings = Arrays.copyOf(postings, capacity);
+				postingSizes = Arrays.copyOf(postingSizes, capacity);
+				postingCategoryIds = Arrays.copyOf(postingCategoryIds, capacity);
+				postingUidIds = Arrays.copyOf(postingUidIds, capacity);
+			}
+			postings[postingId] = new int[1];
+			postingCategoryIds[postingId] = categoryId;
+			postingUidIds[postingId] = uidId;
+			postingIds.put(postingKey, postingId);
+		}
+		return postingId;
+	}
+
+	private void removeEmptyPosting(int postingId) {
+		int categoryId = postingCategoryIds[postingId];
+		int uidId = postingUidIds[postingId];
+		removeCategoryFromUid(uidId, categoryId);
+		postingIds.remove(getPostingKey(categoryId, uidId));
+		postings[postingId] = new int[0];
+		emptyPostingCount++;
+	}
+
+	private void addToPosting(int postingId, int recipeNumber) {
+		int[] posting = postings[postingId];
+		int size = postingSizes[postingId];
+		if (size == posting.length) {
+			posting = postings[postingId] = Arrays.copyOf(posting, Math.max(1, size * 2));
+		}
+		posting[size] = recipeNumber;
+		postingSizes[postingId] = size + 1;
+	}
+
+	/**
+	 * Removes the first recipe in the posting list that equals the given one.
+	 *
+	 * @return the number of the removed recipe, or {@link #NO_ID} if the posting list doesn't have it
+	 */
+	private int removeFromPosting(int postingId, IRecipeWrapper recipeWrapper) {
+		int[] posting = postings[postingId];
+		int size = postingSizes[postingId];
+		for (int i = 0; i < size; i++) {
+			int recipeNumber = posting[i];
+			if (recipeWrapper.equals(recipeWrappers.get(recipeNumber))) {
+				System.arraycopy(posting, i + 1, posting, i, size - i - 1);
+				postingSizes[postingId] = size - 1;
+				return recipeNumber;
+			}
+		}
+		return NO_ID;
+	}
 }
@@ -0,0 +1,175 @@
+package mezz.jei.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.primitives.Longs;
+import mezz.jei.api.recipe.IRecipeRegistryPlugin;
+
+/**
+ * Latency histograms, call counts and result sizes of each recipe registry plugin's lookups,
+ * for finding out which mod's plugin makes looking up recipes slow.
+ * <p>
+ * Slow calls are logged at most once a minute for each plugin and method, so that a slow plugin doesn't fill the log.
+ */
+public class RecipePluginMetrics {
+	private static final long SLOW_CALL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+	private static final long WARNING_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+	public enum Method {
+		RECIPE_CATEGORY_UIDS("getRecipeCategoryUids"),
+		RECIPE_WRAPPERS_WITH_FOCUS("getRecipeWrappersWithFocus"),
+		RECIPE_WRAPPERS("getRecipeWrappers");
+
+		private final String name;
+
+		Method(String name) {
+			this.name = name;
+		}
+	}
+
+	private final Map<Class, MethodMetrics[]> pluginMetrics = new LinkedHashMap<Class, MethodMetrics[]>();
+
+	public RecipePluginMetrics(List<IRecipeRegistryPlugin> plugins) {
+		for (IRecipeRegistryPlugin plugin : plugins) {
+			Class pluginClass = plugin.getClass();
+			if (!pluginMetrics.containsKey(pluginClass)) {
+				Method[] methods = Method.values();
+				MethodMetrics[] methodMetrics = new MethodMetrics[methods.length];
+				for (int i = 0; i < methods.length; i++) {
+					methodMetrics[i] = new MethodMetrics(pluginClass, methods[i]);
+				}
+				pluginMetrics.put(pluginClass, methodMetrics);
+			}
+		}
+	}
+
+	public void record(IRecipeRegistryPlugin plugin, Method method, long nanos, int resultCount) {
+		MethodMetrics[] methodMetrics = pluginMetrics.get(plugin.getClass());
+		if (methodMetrics != null) {
+			methodMetrics[method.ordinal()].record(nanos, resultCount);
+		}
+	}
+
+	/**
+	 * @return one line for each plugin method that was called, the ones that took the most time in total first
+	 */
+	public List<String> getSummary() {
+		List<MethodMetrics> calledMethods = getCalledMethods();
+		List<String> lines = new ArrayList<String>();
+		if (calledMethods.isEmpty()) {
+			lines.add("recipe registry plugins: none called");
+		}
+		for (MethodMetrics methodMetrics : calledMethods) {
+			LatencyHistogram histogram = methodMetrics.histogram;
+			long count = histogram.getCount();
+			lines.add(String.format("%s.%s: %d, total %.1f ms, mean %.3f ms, p50 <= %.3f ms, p99 <= %.3f ms, max %.3f ms, mean %.1f results, %d slow",
+					methodMetrics.pluginClass.getSimpleName(),
+					methodMetrics.method.name,
+					count,
+					histogram.getTotalMicros() / 1000.0,
+					histogram.getMeanMicros() / 1000.0,
+					histogram.getPercentileMicros(0.5) / 1000.0,
+					histogram.getPercentileMicros(0.99) / 1000.0,
+					histogram.getMaxMicros() / 1000.0,
+					methodMetrics.resultCount.get() / (double) count,
+					methodMetrics.slowCalls.get()
+			));
+		}
+		return lines;
+	}
+
+	/**
+	 * Writes the metrics of each plugin method that was called to the CSV file, one "time,plugin,method,metric,value" row each.
+	 * The time is milliseconds since the epoch, latencies are in microseconds and are totals since the game started.
+	 */
+	public void writeCsv(File file) throws IOException {
+		long now = System.currentTimeMillis();
+		BufferedWriter out = new BufferedWriter(new FileWriter(file));
+		try {
+			out.write("time,plugin,method,metric,value");
+			out.newLine();
+			for (MethodMetrics methodMetrics : getCalledMethods()) {
+				LatencyHistogram histogram = methodMetrics.histogram;
+				String prefix = now + "," + methodMetrics.pluginClass.getName() + "," + methodMetrics.method.name + ",";
+				writeCsvRow(out, prefix, "count", histogram.getCount());
+				writeCsvRow(out, prefix, "total_us", histogram.getTotalMicros());
+				writeCsvRow(out, prefix, "mean_us", histogram.getMeanMicros());
+				writeCsvRow(out, prefix, "p50_us", histogram.getPercentileMicros(0.5));
+				writeCsvRow(out, prefix, "p90_us", histogram.getPercentileMicros(0.9));
+				writeCsvRow(out, prefix, "p99_us", histogram.getPercentileMicros(0.99));
+				writeCsvRow(out, prefix, "max_us", histogram.getMaxMicros());
+				writeCsvRow(out, prefix, "results", methodMetrics.resultCount.get());
+				writeCsvRow(out, prefix, "slow_calls", methodMetrics.slowCalls.get());
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void writeCsvRow(BufferedWriter out, String prefix, String metric, long value) throws IOException {
+		out.write(prefix + metric + "," + value);
+		out.newLine();
+	}
+
+	private List<MethodMetrics> getCalledMethods() {
+		List<MethodMetrics> calledMethods = new ArrayList<MethodMetrics>();
+		for (MethodMetrics[] methodMetrics : pluginMetrics.values()) {
+			for (MethodMetrics metrics : methodMetrics) {
+				if (metrics.histogram.getCount() > 0) {
+					calledMethods.add(metrics);
+				}
+			}
+		}
+		Collections.sort(calledMethods, new Comparator<MethodMetrics>() {
+			@Override
+			public int compare(MethodMetrics o1, MethodMetrics o2) {
+				return Longs.compare(o2.histogram.getTotalMicros(), o1.histogram.getTotalMicros());
+			}
+		});
+		return calledMethods;
+	}
+
+	private static class MethodMetrics {
+		private final Class pluginClass;
+		private final Method method;
+		private final LatencyHistogram histogram = new LatencyHistogram();
+		private final AtomicLong resultCount = new AtomicLong();
+		private final AtomicLong slowCalls = new AtomicLong();
+		private final AtomicLong slowCallsSinceWarning = new AtomicLong();
+		private final AtomicLong lastWarningMillis = new AtomicLong();
+
+		public MethodMetrics(Class pluginClass, Method method) {
+			this.pluginClass = pluginClass;
+			this.method = method;
+		}
+
+		public void record(long nanos, int resultCount) {
+			histogram.record(nanos);
+			this.resultCount.addAndGet(resultCount);
+
+			if (nanos >= SLOW_CALL_NANOS) {
+				slowCalls.incrementAndGet();
+				slowCallsSinceWarning.incrementAndGet();
+
+				long now = System.currentTimeMillis();
+				long lastWarning = lastWarningMillis.get();
+				if (now - lastWarning >= WARNING_INTERVAL_MILLIS && lastWarningMillis.compareAndSet(lastWarning, now)) {
+					long slowCallCount = slowCallsSinceWarning.getAndSet(0);
+					Log.warning("Recipe lookup is slow: {} ms. {}.{} had {} slow calls since the last warning, use /jei_plugin_stats for details.",
+							TimeUnit.NANOSECONDS.toMillis(nanos), pluginClass.getName(), method.name, slowCallCount);
+				}
+			}
+		}
+	}
+}
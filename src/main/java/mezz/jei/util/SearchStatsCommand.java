@@ -0,0 +1,92 @@
+package mezz.jei.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import com.google.common.cache.CacheStats;
+import mezz.jei.Internal;
+import mezz.jei.ItemFilter;
+import mezz.jei.JeiRuntime;
+import mezz.jei.search.SearchTreeStats;
+import net.minecraft.client.Minecraft;
+import net.minecraft.command.CommandBase;
+import net.minecraft.command.CommandException;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.command.WrongUsageException;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.text.TextComponentString;
+import net.minecraft.util.text.TextComponentTranslation;
+
+/**
+ * A client command that prints the item filter's search timings, the size of its search trees and the hit rates of JEI's caches,
+ * so that players can report them when searching is slow.
+ * "/jei_search_stats export" appends the search metrics to a CSV file in the logs folder instead.
+ */
+public class SearchStatsCommand extends CommandBase {
+	private static final String EXPORT_FILE_NAME = "jei-search-metrics.csv";
+
+	@Override
+	public String getName() {
+		return "jei_search_stats";
+	}
+
+	@Override
+	public String getUsage(ICommandSender sender) {
+		return "jei.command.search.stats.usage";
+	}
+
+	@Override
+	public int getRequiredPermissionLevel() {
+		return 0;
+	}
+
+	@Override
+	public boolean checkPermission(MinecraftServer server, ICommandSender sender) {
+		return true;
+	}
+
+	@Override
+	public void execute(MinecraftServer server, ICommandSender sender, String[] args) throws CommandException {
+		JeiRuntime runtime = Internal.getRuntime();
+		if (runtime == null) {
+			sender.sendMessage(new TextComponentTranslation("jei.command.search.stats.not.started"));
+			return;
+		}
+
+		ItemFilter itemFilter = runtime.getItemListOverlay().getItemFilter();
+		if (args.length == 0) {
+			sendSummary(itemFilter, sender);
+		} else if (args.length == 1 && "export".equals(args[0])) {
+			File logDir = new File(Minecraft.getMinecraft().mcDataDir, "logs");
+			File file = new File(logDir, EXPORT_FILE_NAME);
+			try {
+				itemFilter.getSearchMetrics().writeCsv(file, itemFilter.getSearchTreeStats());
+				sender.sendMessage(new TextComponentTranslation("jei.command.search.stats.exported", file.getPath()));
+			} catch (IOException e) {
+				Log.error("Failed to write the search metrics to {}", file, e);
+				sender.sendMessage(new TextComponentTranslation("jei.command.search.stats.export.failed", file.getPath()));
+			}
+		} else {
+			throw new WrongUsageException(getUsage(sender));
+		}
+	}
+
+	private static void sendSummary(ItemFilter itemFilter, ICommandSender sender) {
+		for (String line : itemFilter.getSearchMetrics().getSummary()) {
+			sender.sendMessage(new TextComponentString(line));
+		}
+
+		CacheStats cacheStats = itemFilter.getSearchResultsCacheStats();
+		sender.sendMessage(new TextComponentString(String.format("search results cache: %d hits, %d misses, %d evictions", cacheStats.hitCount(), cacheStats.missCount(), cacheStats.evictionCount())));
+
+		CacheStats uidCacheStats = Internal.getStackHelper().getUidCacheStats();
+		sender.sendMessage(new TextComponentString(String.format("stack uid cache: %d hits, %d misses, %.1f%% hit rate, %d evictions", uidCacheStats.hitCount(), uidCacheStats.missCount(), uidCacheStats.hitRate() * 100, uidCacheStats.evictionCount())));
+
+		for (Map.Entry<String, SearchTreeStats> entry : itemFilter.getSearchTreeStats().entrySet()) {
+			SearchTreeStats stats = entry.getValue();
+			String line = String.format("tree %s: %d nodes, %d edges, %d indexes, about %d KB", entry.getKey(), stats.getNodeCount(), stats.getEdgeCount(), stats.getPayloadCount(), stats.getMemoryFootprint() / 1024);
+			sender.sendMessage(new TextComponentString(line));
+		}
+	}
+}
@@ -6,14 +6,17 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumMap;
 import java.util.HashMap;
-import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import mezz.jei.api.ISubtypeRegistry;
 import mezz.jei.api.gui.IGuiIngredient;
 import mezz.jei.api.recipe.IStackHelper;
@@ -26,29 +29,44 @@ import net.minecraft.util.ResourceLocation;
 import net.minecraftforge.oredict.OreDictionary;
 
 public class StackHelper implements IStackHelper {
+	/**
+	 * The number of uids cached for each uid mode.
+	 */
+	private static final int MAX_CACHED_UIDS = 100000;
+
 	private final ISubtypeRegistry subtypeRegistry;
 	/**
-	 * Uids are cached during loading to improve startup performance.
+	 * Uids are looked up for the same stacks over and over, while loading and by recipe lookups and the item list.
+	 * The stacks are weak keys compared by identity, so a stack's uid is forgotten when the stack is no longer used.
+	 * <p>
+	 * Stacks can be changed after their uid is cached, so each cached uid is checked against the stack before it is used,
+	 * see {@link CachedUid}.
 	 */
-	private final Map<UidMode, Map<ItemStack, String>> uidCache = new EnumMap<UidMode, Map<ItemStack, String>>(UidMode.class);
-	private boolean uidCacheEnabled = true;
+	private final Map<UidMode, Cache<ItemStack, CachedUid>> uidCache = new EnumMap<UidMode, Cache<ItemStack, CachedUid>>(UidMode.class);
+	private final AtomicLong uidCacheHits = new AtomicLong();
+	private final AtomicLong uidCacheMisses = new AtomicLong();
 
 	public StackHelper(ISubtypeRegistry subtypeRegistry) {
 		this.subtypeRegistry = subtypeRegistry;
 		for (UidMode mode : UidMode.values()) {
-			uidCache.put(mode, new IdentityHashMap<ItemStack, String>());
+			Cache<ItemStack, CachedUid> cache = CacheBuilder.newBuilder()
+					.weakKeys()
+					.maximumSize(MAX_CACHED_UIDS)
+					.recordStats()
+					.build();
+			uidCache.put(mode, cache);
 		}
 	}
 
-	public void enableUidCache() {
-		uidCacheEnabled = true;
-	}
-
-	public void disableUidCache() {
-		for (UidMode mode : UidMode.values()) {
-			uidCache.get(mode).clear();
+	/**
+	 * Cached uids that are out of date because their stack was changed count as misses.
+	 */
+	public CacheStats getUidCacheStats() {
+		long evictionCount = 0;
+		for (Cache<ItemStack, CachedUid> cache : uidCache.values()) {
+			evictionCount += cache.stats().evictionCount();
 		}
-		uidCacheEnabled = false;
+		return new CacheStats(uidCacheHits.get(), uidCacheMisses.get(), 0, 0, 0, evictionCount);
 	}
 
 	@Nullable
@@ -363,12 +381,13 @@ public class StackHelper implements IStackHelper {
 	}
 
 	public String getUniqueIdentifierForStack(ItemStack stack, UidMode mode) {
-		if (uidCacheEnabled) {
-			String result = uidCache.get(mode).get(stack);
-			if (result != null) {
-				return result;
-			}
+		Cache<ItemStack, CachedUid> cache = uidCache.get(mode);
+		CachedUid cachedUid = cache.getIfPresent(stack);
+		if (cachedUid != null && cachedUid.isValidFor(stack)) {
+			uidCacheHits.incrementAndGet();
+			return cachedUid.getUid();
 		}
+		uidCacheMisses.incrementAndGet();
 
 		Item item = stack.getItem();
 		if (stack.isEmpty()) {
@@ -411,16 +430,84 @@ public class StackHelper implements IStackHelper {
 		}
 
 		String result = itemKey.toString();
-		if (uidCacheEnabled) {
-			uidCache.get(mode).put(stack, result);
+		boolean nbtUid = isNbtUid(stack, mode);
+		// capabilities can change without changing the stack's NBT, so those uids can't be checked
+		if (!nbtUid || !hasCapabilities(stack)) {
+			cache.put(stack, new CachedUid(stack, result, nbtUid));
 		}
 		return result;
 	}
 
+	/**
+	 * Wildcard uids are made from the item, normal uids from the item and metadata unless the item has a subtype interpreter.
+	 * Subtype interpreters can use the stack's NBT, and full uids contain it.
+	 */
+	private boolean isNbtUid(ItemStack stack, UidMode mode) {
+		switch (mode) {
+			case WILDCARD:
+				return false;
+			case NORMAL:
+				return subtypeRegistry.hasSubtypeInterpreter(stack);
+			case FULL:
+			default:
+				return true;
+		}
+	}
+
+	/**
+	 * Writes the stack without copying its NBT, the capabilities are only written if it has any.
+	 */
+	private static boolean hasCapabilities(ItemStack stack) {
+		NBTTagCompound serializedNbt = stack.serializeNBT();
+		return serializedNbt.hasKey("ForgeCaps") && !serializedNbt.getCompoundTag("ForgeCaps").hasNoTags();
+	}
+
 	public enum UidMode {
 		NORMAL, WILDCARD, FULL
 	}
 
+	/**
+	 * A stack's uid, and the item and metadata it was made from.
+	 * Stacks can be changed after their uid is cached, so the uid is only used while they are unchanged.
+	 * <p>
+	 * Uids that depend on the stack's NBT also keep its NBT tag and the tag's hash code.
+	 * The tag must be the same instance with the same hash code, which is much cheaper than copying and writing it for a new uid.
+	 * A tag that is replaced is a different instance, and a tag that is changed in place gets a different hash code.
+	 */
+	private static class CachedUid {
+		private final Item item;
+		private final int metadata;
+		private final boolean nbtUid;
+		@Nullable
+		private final NBTTagCompound nbt;
+		private final int nbtHashCode;
+		private final String uid;
+
+		public CachedUid(ItemStack stack, String uid, boolean nbtUid) {
+			this.item = stack.getItem();
+			this.metadata = stack.getMetadata();
+			this.nbtUid = nbtUid;
+			this.nbt = nbtUid ? stack.getTagCompound() : null;
+			this.nbtHashCode = (nbt == null) ? 0 : nbt.hashCode();
+			this.uid = uid;
+		}
+
+		public boolean isValidFor(ItemStack stack) {
+			if (stack.getItem() != item || stack.getMetadata() != metadata) {
+				return false;
+			}
+			if (nbtUid) {
+				NBTTagCompound stackNbt = stack.getTagCompound();
+				return stackNbt == nbt && (stackNbt == null || stackNbt.hashCode() == nbtHashCode);
+			}
+			return true;
+		}
+
+		public String getUid() {
+			return uid;
+		}
+	}
+
 	public static class MatchingItemsResult {
 		public final Map<Integer, Integer> matchingItems = new HashMap<Integer, Integer>();
 		public final List<Integer> missingItems = new ArrayList<Integer>();